@@ -8,26 +8,62 @@
  0- BATTERY CLASS
     0a- Constructor and its attributes
     0b- Method toString
-    0c- Methods to create a list: createColumnsList, createListsInsideColumns
-    0d- Methods for logic: calculateNumberOfFloorsPerColumn, setColumnValues, initializeBasementColumnFloors, initializeMultiColumnFloors, initializeUniqueColumnFloors
- 1- COLUMN CLASS
-    1a- Constructor and its attributes
-    1b- Method toString
-    1c- Methods to create a list: createElevatorsList, createButtonsUpList, createButtonsDownList
-    1d- Methods for logic: findElevator, findNearestElevator, manageButtonStatusOn
-    1e- Entry method: requestElevator
- 2- ELEVATOR CLASS
+    0c- Methods to create a list: createColumnsList, createColumnsIndex
+    0d- Methods for logic: findColumn
+    0e- Methods for the simulation threads: run, start, setDispatchStrategy, enableParking, disableParking, setSensorSource, setSensorSeed, stop
+    0f- Methods for metrics: takeMetricsSnapshot, registerMBeans, unregisterMBeans
+    0g- Methods for the state file: writeState, readState
+    0h- Entry method: requestElevator
+ 1- BATTERY BUILDER CLASS: withStatus, withClockMode, withZones, build, firstColumnAboveLobby, validate, layoutColumns
+ 2- COLUMN CLASS
     2a- Constructor and its attributes
     2b- Method toString
-    2c- Methods to create a list: createFloorDoorsList, createDisplaysList, createFloorButtonsList, addFloorToFloorList
-    2d- Methods for logic: moveElevator, moveUp, moveDown, manageButtonStatusOff, updateDisplays, openDoors, closeDoors, checkWeight, checkObstruction, addFloorToFloorList, deleteFloorFromList
-    2e- Entry method: requestFloor
- 3- DOOR CLASS
- 4- BUTTON CLASS
- 5- DISPLAY CLASS
- 6- ENUMS
- 7- TESTING PROGRAM - SCENARIOS
- 9- TESTING PROGRAM - CALL SCENARIOS
+    2c- Methods to create a list: initializeFixtureFloors, createElevatorsList, createButtonsUpList, createButtonsDownList
+    2d- Methods for fixture arrays: floorIndex, findByFloor, indexByFloor
+    2e- Methods for logic: findElevator, findNearestElevator, manageButtonStatusOn, clearAssignedElevators, isSaturated, submitOrRun, takeSnapshot
+    2f- Entry method: requestElevator, dispatchHallCalls (HallCall)
+ 3- ELEVATOR CLASS
+    3a- Constructor and its attributes
+    3b- Method toString
+    3c- Methods for the fleet state: getFloor, setFloor, getStatus, setStatus
+    3d- Methods for the landings: floorDoorStatus, floorButtonStatus
+    3e- Methods for logic: moveElevator, resumeRoute, nextStep, park, moveUp, moveDown, arriveAtFloor, manageButtonStatusOff, updateDisplays, openDoors, closeDoors, checkWeight, checkObstruction, addFloorToFloorList, deleteFloorFromList, cancelStop
+    3f- Methods for the mailbox: post, processMailbox, withdrawArrivals, completeArrivals
+    3g- Entry method: requestFloor
+ 4- STOP SET CLASS
+    4a- Constructor and its attributes: wordsFor
+    4b- Method toString
+    4c- Methods for logic: add, remove, contains, nextAbove, nextBelow, lowest, highest, countBetween, toList
+    4d- Methods for the state file: writeTo, readFrom
+ 5- FLEET STATE CLASS: add, createStopSet, getStatus, setStatus
+ 6- DOOR CLASS
+ 7- BUTTON CLASS
+ 8- DISPLAY CLASS
+ 9- SNAPSHOTS: ElevatorSnapshot, ColumnSnapshot
+ 10- EVENT SINKS: EventSink, NoOpEventSink, ConsoleEventSink, RingBufferEventSink
+ 11- SENSOR SOURCES: SensorSource, RandomSensorSource, TraceSensorSource, RecordingSensorSource, HardwareSensorSource
+ 12- JOURNAL: JournalEventSink, JournalRecord, JournalReplay (record with: java Commercial_Controller journal <file> [zones], replay with: java Commercial_Controller replay <file> [time])
+ 13- STATE FILE: BatteryStateFile (run with: java Commercial_Controller checkpoint <file>)
+ 14- CONFIGURATION FILE: BuildingConfigFile (read, load) (run with: java Commercial_Controller buildings <file>)
+ 15- NETWORK: CallServer (handle, checkSaturation), CallConnection (read, reply, flush, updateInterest), CallLoadClient, CallLoadConnection (run with: java Commercial_Controller server [port], client <host> <port> [connections] [trips], netload [connections] [trips])
+ 16- METRICS: ElevatorMetrics, ColumnMetrics, MetricsSnapshot, MetricsReporter, MetricsMBean, LatencyHistogram
+ 17- DISPATCH STRATEGIES: DispatchStrategy, PriorityDispatchStrategy, EtaDispatchStrategy
+ 18- PARKING PLANNER: ParkingPlanner (timeOfDay, slotOf, recordCall, chooseParkingFloor)
+ 19- PENDING CALLS: PendingCallRegistry (register, join, ageIfDue, reassign), PendingCall
+ 20- SIMULATION CLASS
+    20a- Constructor and its attributes
+    20b- Method toString
+    20c- Methods for logic: schedule, runNextEvent, run, runUntil, restoreClock
+    20d- Methods for the simulation thread: submit, start, stop, runLoop
+ 21- ENUMS
+ 22- LOAD TEST PROGRAM (run with: java Commercial_Controller loadtest [callsPerHour])
+    22a- Traffic: Trip, FloorDemand, TrafficGenerator (generate, createTrip, createInterFloorTrip, randomServedFloor)
+    22b- LoadTest: run, schedule, startTrip, simulatedTime, callsPerSimulatedHour, getResult, printReport, runAll (LoadTestResult)
+    22c- Parameter sweep (run with: java Commercial_Controller sweep [threads] [callsPerHour]): BuildingConfiguration, SimulationRunner
+    22d- Zoning (run with: java Commercial_Controller zoning [threads] [callsPerHour]): ZoningOptimizer (evenZones, balancedZones, optimize, bestOf, score)
+ 23- TESTING PROGRAM - SCENARIOS
+    23a- Concurrent scenario: scenarioConcurrentRequests (run with: java Commercial_Controller stress)
+ 24- TESTING PROGRAM - CALL SCENARIOS
 
  CONTROLLED OBJECTS:
  Battery: contains a list of N columns
@@ -40,13 +76,114 @@
  minBuildingFloor                                                   //Is equal to 1 OR equal the numberOfBasements if there is a basement
  maxBuildingFloor = numberOfFloors                                  //Is the last floor of the building
  maxWeight                                                          //Maximum weight an elevator can carry in KG
+ lowestFixtureFloor = Math.min(minFloor, 1)                         //Fixture arrays of a column start at its lowest basement OR at the lobby
+ floorIndex = floor - lowestFixtureFloor                            //Index of a floor in the fixture arrays, works with negative floors
+ stopSet                                                            //Stops of an elevator, one bit per floor at the floorIndex of the floor
+ landingFloors                                                      //Floors with a landing for the elevators of a column, shared by all of them
+ fleet                                                              //Floors, statuses and stop bitmaps of the elevators of a column in arrays
+
+ SIMULATION:
+ Elevators do not block while they move or keep their doors opened, every step of an elevator (close doors, serve a stop,
+ move one floor) is an event scheduled on the Simulation of its column. In VIRTUAL mode the clock jumps from one event to
+ the next one, so hours of traffic run in seconds. In WALL_CLOCK mode the events are paced in real time (real hardware).
+ requestElevator and requestFloor never block: they return a CompletableFuture completed when the elevator opens its doors
+ at the requested floor. Each elevator has a mailbox that it processes on the simulation thread, started with battery.start().
+
+ EVENTS:
+ The elevators do not print anything themselves, they emit typed events (call assigned, car moved, doors opened/closed,
+ sensor checked) to the EventSink of their battery. The ConsoleEventSink (default) prints the story of the scenarios, the
+ NoOpEventSink costs nothing for large simulations and the RingBufferEventSink writes the events on a background thread.
+
+ BUILDINGS:
+ Every constructor of the Battery goes through a BatteryBuilder: it checks the building and lays out the floors of all the
+ columns in int arrays before anything is created, then the columns, elevators and buttons are created in one pass with
+ their lists presized. A BuildingConfigFile describes the batteries of many buildings in a text file, they are all read and
+ validated before the first one is built.
+
+ ZONING:
+ By default the floors above the lobby are split evenly between the columns. A battery can also be built with the maxFloor
+ of each column above the lobby (zoneMaxFloors). The ZoningOptimizer searches these zones for a FloorDemand (relative number
+ of trips of each floor, expected or measured with FloorDemand.measure): every zoning is simulated with all the profiles on
+ the same traffic seed, and the moves of a boundary are simulated in parallel on the SimulationRunner.
+
+ PARKING:
+ With battery.enableParking(startTimeOfDay), the ParkingPlanner of each column remembers where its hall calls come from in
+ every 15 minutes slot of the day (ring buffers of the last 64 calls). An elevator without stops goes to wait at the floor
+ with the most calls expected in the coming minutes that no other waiting elevator covers: the lobby before 9am, the upper
+ floors before 5pm. The parking is off by default, the IDLE elevators then stay where they stopped.
+
+ SENSORS:
+ checkWeight and checkObstruction read the SensorSource of the column. The RandomSensorSource (default) simulates the sensors
+ with a SplittableRandom per column: battery.setSensorSeed(seed) gives the same readings, so the same run, for the same seed,
+ and the load tests compare the dispatch strategies on the same traffic AND the same sensors. A RecordingSensorSource writes
+ the readings as a trace that the TraceSensorSource replays, and the HardwareSensorSource is where the real sensors plug in.
+
+ DISPATCH:
+ The elevator answering a hall call is chosen by the DispatchStrategy of the column. The PriorityDispatchStrategy (default)
+ prefers an elevator coming in the same direction, then an IDLE one, then the nearest one. The EtaDispatchStrategy chooses
+ the elevator with the lowest estimated time of arrival, counting the travel time and the door dwell of the stops on its way.
+ The stop set of an elevator keeps its lowest and highest stops (the ends of its sweeps) up to date and counts the stops
+ between two floors with one bitCount per word, so an estimate costs the same whatever the number of stops.
+
+ JOURNAL:
+ The JournalEventSink writes every event (hall call, floor request, stop added or removed, call assigned, car moved, doors,
+ sensors) as a 24 bytes record in a memory-mapped file, in the order of the events. JournalReplay reads the records back
+ and rebuilds the floors, statuses, stops, doors and buttons of the battery at any time of the journal. The header keeps the
+ zones of the battery, so a zoned battery is replayed with the same columns. A car move is written when the car leaves its
+ floor, with its travel time: a replay stopped during the move leaves the car at this floor, going in the direction of the move.
+
+ STATE FILE:
+ battery.writeState(path) saves the floors, statuses, stops, doors, buttons and waiting calls of every column in a compact binary
+ file (the fleet arrays are written as they are), and Battery.readState(path) rebuilds the battery from it in a few milliseconds.
+ The elevators restored with stops continue their route, so a restart does not drop the pending calls: they are registered
+ again with their call times, so they are still reassigned and still count for the saturation of their column.
+
+ METRICS:
+ Every column counts its hall calls, the wait time of the passengers and the time taken by findElevator; every elevator counts
+ its trips, floors travelled, door cycles and the time spent IDLE, UP and DOWN. They are read with battery.takeMetricsSnapshot(),
+ a MetricsReporter (periodic snapshot) or in JMX after battery.registerMBeans().
+
+ HALL CALLS:
+ requestElevator only queues a HallCall. The simulation thread dispatches all the waiting calls in one pass: a press on a
+ button already ON joins the elevator answering it (assignedUpArray/assignedDownArray) instead of looking for an elevator
+ again, so a button pressed many times during a lobby rush costs one dispatch.
+
+ PENDING CALLS:
+ A call is only dispatched once, when it arrives, so a call given to an elevator going away waits for the end of its sweep.
+ The PendingCallRegistry of the column keeps the calls not answered yet, the oldest first. With the steps of the elevators,
+ every 5s, a call waiting for more than 30s is given to the elevator with the lowest ETA if it arrives 10s sooner (the first
+ elevator cancels its stop if nothing else waits for it there), which cuts the p99 wait of the peaks. A column with more
+ than 8 waiting passengers per elevator is saturated (column.isSaturated()): the CallServer stops reading until it is not.
+
+ NETWORK:
+ The CallServer takes trips, hall calls and car calls from the floor panels over TCP, one ASCII line per request. One selector
+ thread reads all the connections and sends the decoded requests to the columns, whose queues batch them; the assignment (the
+ HallCall completes its assignment future as soon as the elevator is chosen) and the arrivals are replied from the threads of
+ the columns through a queue per connection, and the selector is woken up once per flush. The CallLoadClient measures it.
+
+ CONCURRENCY:
+ The columns of a battery are independent, so each column owns its Simulation and runs it on its own thread. The state of a
+ column, of its buttons and of its elevators is only changed by this thread (single writer): the other threads submit
+ requests to it and read the state through immutable snapshots (column.takeSnapshot()). No lock is needed on the hot path.
 
   ** ************************************************** */
 
 
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
 import java.time.LocalTime;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.*;
 import java.util.stream.Collectors;
+import javax.management.*;
 
 
 //------------------------------------------- BATTERY CLASS -----------------------------------------------------------------------
@@ -61,22 +198,45 @@ class Battery {
     int totalNumberOfFloors;               //numberOfFloors + Math.abs(numberOfBasements)
     int numberOfElevatorsPerColumn;
     int numberOfFloorsPerColumn;
+    int[] zoneMaxFloors;                   //maxFloor of each column above the lobby, in order, null when the floors are split evenly
     BatteryStatus status;
+    ClockMode clockMode;                   //Clock of the simulations of the columns
+    EventSink eventSink;                   //Receives the events of all the elevators of the battery
     List<Column> columnsList;
+    Column[] columnsIndex;                 //Column serving each floor, at index (floor - minBuildingFloor), the lobby is served by all
 
     //----------------- Constructor and its attributes -----------------//
     public Battery(int id, int numberOfColumns, int totalNumberOfFloors, int numberOfBasements, int numberOfElevatorsPerColumn, BatteryStatus batteryStatus) {
-        this.id = id;
-        this.numberOfColumns = numberOfColumns;
-        this.totalNumberOfFloors = totalNumberOfFloors;
-        this.numberOfBasements = numberOfBasements;
-        this.numberOfElevatorsPerColumn = numberOfElevatorsPerColumn;
-        this.status = batteryStatus;
-        this.columnsList = new ArrayList<>();
-        this.numberOfFloorsPerColumn = calculateNumberOfFloorsPerColumn();
-        this.createColumnsList();
-        this.setColumnValues();
-        this.createListsInsideColumns();
+        this(id, numberOfColumns, totalNumberOfFloors, numberOfBasements, numberOfElevatorsPerColumn, batteryStatus, ClockMode.VIRTUAL);
+    }
+
+    public Battery(int id, int numberOfColumns, int totalNumberOfFloors, int numberOfBasements, int numberOfElevatorsPerColumn, BatteryStatus batteryStatus, ClockMode clockMode) {
+        this(id, numberOfColumns, totalNumberOfFloors, numberOfBasements, numberOfElevatorsPerColumn, batteryStatus, clockMode, null);
+    }
+
+    /* ******* THE COLUMNS ABOVE THE LOBBY SERVE ZONES OF ANY SIZE: THE FIRST ONE FROM THE LOBBY TO zoneMaxFloors[0], ******* */
+    /* ******* THE NEXT ONE FROM zoneMaxFloors[0] + 1 TO zoneMaxFloors[1], ..., THE LAST ONE UP TO THE LAST FLOOR OF THE BUILDING ******* */
+    public Battery(int id, int numberOfColumns, int totalNumberOfFloors, int numberOfBasements, int numberOfElevatorsPerColumn, BatteryStatus batteryStatus, ClockMode clockMode, int[] zoneMaxFloors) {
+        this(new BatteryBuilder(id, numberOfColumns, totalNumberOfFloors, numberOfBasements, numberOfElevatorsPerColumn).withStatus(batteryStatus).withClockMode(clockMode).withZones(zoneMaxFloors));
+    }
+
+    /* ******* THE FLOORS OF ALL THE COLUMNS ARE LAID OUT AND VALIDATED BY THE BUILDER BEFORE ANYTHING IS CREATED ******* */
+    Battery(BatteryBuilder builder) {
+        builder.layoutColumns();
+        this.id = builder.id;
+        this.numberOfColumns = builder.numberOfColumns;
+        this.totalNumberOfFloors = builder.totalNumberOfFloors;
+        this.numberOfBasements = builder.numberOfBasements;
+        this.numberOfFloors = builder.numberOfFloors;
+        this.numberOfElevatorsPerColumn = builder.numberOfElevatorsPerColumn;
+        this.numberOfFloorsPerColumn = builder.numberOfFloorsPerColumn;
+        this.status = builder.status;
+        this.clockMode = builder.clockMode;
+        this.zoneMaxFloors = builder.zoneMaxFloors;
+        this.eventSink = new ConsoleEventSink();
+        this.columnsList = new ArrayList<>(this.numberOfColumns);
+        this.createColumnsList(builder);
+        this.createColumnsIndex();
     }
 
 
@@ -89,103 +249,297 @@ class Battery {
 
 
     //----------------- Methods to create a list -----------------//
-    /* ******* CREATE A LIST OF COLUMNS FOR THE BATTERY ******* */
-    public void createColumnsList() {
+    /* ******* CREATE THE COLUMNS WITH THE FLOORS LAID OUT BY THE BUILDER, AND THE ELEVATORS AND BUTTONS INSIDE EACH COLUMN ******* */
+    public void createColumnsList(BatteryBuilder builder) {
         char name = 'A';
-        for (int i = 1; i <= this.numberOfColumns; i++) {
-            this.columnsList.add(new Column(i, name, ColumnStatus.ACTIVE, this.numberOfElevatorsPerColumn, numberOfFloorsPerColumn, numberOfBasements, this));
+        for (int i = 0; i < this.numberOfColumns; i++) {
+            Column column = new Column(i + 1, name, ColumnStatus.ACTIVE, this.numberOfElevatorsPerColumn, builder.servedFloorsArray[i], this.numberOfBasements, this);
+            column.minFloor = builder.minFloorsArray[i];
+            column.maxFloor = builder.maxFloorsArray[i];
+            column.initializeFixtureFloors();
+            column.createElevatorsList();
+            column.createButtonsUpList();
+            column.createButtonsDownList();
+            this.columnsList.add(column);
             name += 1;
         }
     }
 
-    /* ******* CALL FUNCTIONS TO CREATE THE LISTS INSIDE EACH COLUMN ******* */
-    public void createListsInsideColumns() {
-        columnsList.forEach(column -> {
-            column.createElevatorsList();
-            column.createButtonsUpList();
-            column.createButtonsDownList();
-        });
+    /* ******* CREATE THE INDEX OF THE COLUMN SERVING EACH FLOOR, SO A CALL IS ROUTED IN CONSTANT TIME ******* */
+    public void createColumnsIndex() {
+        this.minBuildingFloor = 1;
+        this.maxBuildingFloor = 1;
+        for (Column column : this.columnsList) {
+            this.minBuildingFloor = Math.min(this.minBuildingFloor, column.minFloor);
+            this.maxBuildingFloor = Math.max(this.maxBuildingFloor, column.maxFloor);
+        }
+        this.columnsIndex = new Column[this.maxBuildingFloor - this.minBuildingFloor + 1];
+        for (Column column : this.columnsList) {
+            for (int floor = column.minFloor; floor <= column.maxFloor; floor++) {
+                if (floor != 1 && this.columnsIndex[floor - this.minBuildingFloor] == null) { //the lobby is not indexed, every column serves it
+                    this.columnsIndex[floor - this.minBuildingFloor] = column;
+                }
+            }
+        }
     }
 
 
     //----------------- Methods for logic -----------------//
-    /* ******* LOGIC TO FIND THE FLOORS SERVED PER EACH COLUMN ******* */
-    public int calculateNumberOfFloorsPerColumn() {
-        numberOfFloors = totalNumberOfFloors - numberOfBasements; 
-        int numberOfFloorsPerColumn;
+    /* ******* LOGIC TO FIND THE COLUMN SERVING A TRIP, THE LOBBY IS SERVED BY ALL THE COLUMNS SO THE OTHER FLOOR DECIDES ******* */
+    public Column findColumn(int fromFloor, int destinationFloor) {
+        if (fromFloor == destinationFloor) {
+            throw new IllegalArgumentException("The destination floor must be different from the floor " + fromFloor);
+        }
+        Column column = this.findColumnByFloor(fromFloor == 1 ? destinationFloor : fromFloor);
+        if (destinationFloor != 1 && this.findColumnByFloor(destinationFloor) != column) {
+            throw new IllegalArgumentException("No column goes from floor " + fromFloor + " to floor " + destinationFloor + ", change of column at the lobby");
+        }
+        return column;
+    }
 
-        if (this.numberOfBasements > 0) { //if there is basement floors
-            numberOfFloorsPerColumn = (this.numberOfFloors / (this.numberOfColumns - 1)); //the first column serves the basement floors
-        } else { //there is no basement
-            numberOfFloorsPerColumn = (this.numberOfFloors / this.numberOfColumns);
+    /* ******* LOGIC TO FIND THE COLUMN SERVING A FLOOR OTHER THAN THE LOBBY ******* */
+    private Column findColumnByFloor(int floor) {
+        int index = floor - this.minBuildingFloor;
+        if (index < 0 || index >= this.columnsIndex.length || this.columnsIndex[index] == null) {
+            throw new IllegalArgumentException("No column serves the floor " + floor);
         }
+        return this.columnsIndex[index];
+    }
+
+
+    //----------------- Methods for the simulation threads -----------------//
+    /* ******* RUN THE SIMULATION OF EVERY COLUMN ON THE CALLING THREAD UNTIL ALL THE ELEVATORS ARE STOPPED ******* */
+    public void run() {
+        this.columnsList.forEach(column -> column.simulation.run());
+    }
+
+    /* ******* START THE SIMULATION OF EACH COLUMN ON ITS OWN THREAD, REQUESTS CAN THEN COME FROM ANY THREAD ******* */
+    public void start() {
+        this.columnsList.forEach(column -> column.simulation.start("battery" + this.id + "-column" + column.name));
+    }
+
+    /* ******* USE THE SAME DISPATCH STRATEGY IN ALL THE COLUMNS ******* */
+    public void setDispatchStrategy(DispatchStrategy dispatchStrategy) {
+        this.columnsList.forEach(column -> column.submitOrRun(() -> column.dispatchStrategy = dispatchStrategy));
+    }
+
+    /* ******* USE THE SAME SENSOR SOURCE IN ALL THE COLUMNS ******* */
+    public void setSensorSource(SensorSource sensorSource) {
+        this.columnsList.forEach(column -> column.submitOrRun(() -> column.sensorSource = sensorSource));
+    }
 
-        return numberOfFloorsPerColumn;
+    /* ******* SEND THE IDLE ELEVATORS WHERE THE NEXT CALLS ARE EXPECTED, THE CLOCKS OF THE COLUMNS START AT THE GIVEN TIME OF DAY ******* */
+    public void enableParking(LocalTime startTimeOfDay) {
+        this.columnsList.forEach(column -> column.submitOrRun(() -> column.parkingPlanner = new ParkingPlanner(column, startTimeOfDay)));
     }
 
-    /* ******* LOGIC TO FIND THE REMAINING FLOORS OF EACH COLUMN AND SET VALUES servedFloors, minFloors, maxFloors ******* */
-    public void setColumnValues() {
-        int remainingFloors;
+    /* ******* THE IDLE ELEVATORS STAY WHERE THEY STOPPED (DEFAULT) ******* */
+    public void disableParking() {
+        this.columnsList.forEach(column -> column.submitOrRun(() -> column.parkingPlanner = null));
+    }
 
-        //calculating the remaining floors
-        if (this.numberOfBasements > 0) { //if there are basement floors
-            remainingFloors = this.numberOfFloors % (this.numberOfColumns - 1);
-        } else { //if there is no basement
-            remainingFloors = this.numberOfFloors % this.numberOfColumns;
+    /* ******* GIVE EACH COLUMN ITS OWN GENERATOR SPLIT FROM THE SEED, THE SAME SEED GIVES THE SAME READINGS IN EVERY COLUMN ******* */
+    public void setSensorSeed(long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        for (Column column : this.columnsList) {
+            SensorSource sensorSource = new RandomSensorSource(random.split()); //split in the order of the columns, not of their threads
+            column.submitOrRun(() -> column.sensorSource = sensorSource);
         }
+    }
+
+    /* ******* STOP THE SIMULATION THREADS OF THE BATTERY ******* */
+    public void stop() {
+        this.columnsList.forEach(column -> column.simulation.stop());
+    }
+
 
-        //setting the minFloor and maxFloor of each column
-        if (this.numberOfColumns == 1) { //if there is just one column, it serves all the floors of the building
-            initializeUniqueColumnFloors();
-        } else { //for more than 1 column
-            initializeMultiColumnFloors();
+    //----------------- Methods for metrics -----------------//
+    /* ******* GET THE METRICS OF ALL THE COLUMNS AND ELEVATORS, CAN BE CALLED FROM ANY THREAD ******* */
+    public MetricsSnapshot takeMetricsSnapshot() {
+        return new MetricsSnapshot(this);
+    }
 
-            //adjusting the number of served floors of the columns if there are remaining floors
-            if (remainingFloors != 0) { //if the remainingFloors is not zero, then it adds the remaining floors to the last column
-                this.columnsList.get(this.columnsList.size() - 1).numberServedFloors = numberOfFloorsPerColumn + remainingFloors;
-                this.columnsList.get(this.columnsList.size() - 1).maxFloor = this.columnsList.get(this.columnsList.size() - 1).minFloor + this.columnsList.get(this.columnsList.size() - 1).numberServedFloors;
+    /* ******* SHOW THE METRICS OF THE COLUMNS AND ELEVATORS IN JMX (JConsole, VisualVM) UNDER Rocket_Elevators ******* */
+    public void registerMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            for (Column column : this.columnsList) {
+                server.registerMBean(new MetricsMBean("Metrics of the column " + column.name, column.metrics::snapshot), this.columnObjectName(column));
+                for (Elevator elevator : column.elevatorsList) {
+                    server.registerMBean(new MetricsMBean("Metrics of the elevator " + column.name + elevator.id, () -> elevator.metrics.snapshot(column.simulation.currentTime)), this.elevatorObjectName(column, elevator));
+                }
             }
-            //if there is a basement, then the first column will serve the basements + RDC
-            if (this.numberOfBasements > 0) {
-                initializeBasementColumnFloors();
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot register the metrics of the battery " + this.id, e);
+        }
+    }
+
+    /* ******* REMOVE THE METRICS OF THE BATTERY FROM JMX ******* */
+    public void unregisterMBeans() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            for (Column column : this.columnsList) {
+                server.unregisterMBean(this.columnObjectName(column));
+                for (Elevator elevator : column.elevatorsList) {
+                    server.unregisterMBean(this.elevatorObjectName(column, elevator));
+                }
             }
+        } catch (JMException e) {
+            throw new IllegalStateException("Cannot unregister the metrics of the battery " + this.id, e);
         }
     }
 
-    /* ******* LOGIC TO SET THE minFloor AND maxFloor FOR THE BASEMENT COLUMN ******* */
-    private void initializeBasementColumnFloors() {
-        this.columnsList.get(0).numberServedFloors = (this.numberOfBasements + 1); //+1 is the RDC
-        this.columnsList.get(0).minFloor = numberOfBasements * -1; //the minFloor of basement is a negative number
-        this.columnsList.get(0).maxFloor = 1; //1 is the RDC
+    private ObjectName columnObjectName(Column column) throws MalformedObjectNameException {
+        return new ObjectName("Rocket_Elevators:type=Column,battery=" + this.id + ",name=" + column.name);
     }
 
-    /* ******* LOGIC TO SET THE minFloor AND maxFloor FOR ALL THE COLUMNS EXCLUDING BASEMENT COLUMN ******* */
-    private void initializeMultiColumnFloors() {
-        int minimumFloor = 1;
-        for (int i = 1; i < this.columnsList.size(); i++) { //if its not the first column (because the first column serves the basements)
-            if (i == 1) {
-                this.columnsList.get(i).numberServedFloors = numberOfFloorsPerColumn;
-            } else {
-                this.columnsList.get(i).numberServedFloors = (numberOfFloorsPerColumn + 1); //Add 1 floor for the RDC/ground floor
+    private ObjectName elevatorObjectName(Column column, Elevator elevator) throws MalformedObjectNameException {
+        return new ObjectName("Rocket_Elevators:type=Elevator,battery=" + this.id + ",column=" + column.name + ",name=" + column.name + elevator.id);
+    }
+
+
+    //----------------- Methods for the state file -----------------//
+    /* ******* SAVE THE FLOORS, STATUSES, STOPS, DOORS, BUTTONS AND WAITING CALLS OF THE BATTERY, SEE BatteryStateFile ******* */
+    public void writeState(Path path) throws IOException {
+        BatteryStateFile.write(this, path);
+    }
+
+    /* ******* CREATE A BATTERY FROM A STATE FILE, THE ELEVATORS WITH STOPS CONTINUE THEIR ROUTE WHEN THE BATTERY RUNS ******* */
+    public static Battery readState(Path path) throws IOException {
+        return BatteryStateFile.read(path);
+    }
+
+
+    //----------------- Entry method -----------------//
+    /* ******* ENTRY METHOD ******* */
+    /* ******* REQUEST A TRIP FROM ANY FLOOR, THE CALL IS SENT TO THE COLUMN SERVING IT ******* */
+    /* ******* RETURNS RIGHT AWAY, THE FUTURE IS COMPLETED WHEN THE ELEVATOR OPENS ITS DOORS AT THE DESTINATION FLOOR ******* */
+    public CompletableFuture<Elevator> requestElevator(int fromFloor, int destinationFloor) {
+        Column column = this.findColumn(fromFloor, destinationFloor);
+        Direction direction = destinationFloor > fromFloor ? Direction.UP : Direction.DOWN;
+        return column.requestElevator(fromFloor, direction).thenCompose(elevator -> elevator.requestFloor(destinationFloor));
+    }
+
+}
+
+
+//------------------------------------------- BATTERY BUILDER CLASS ---------------------------------------------------------------
+//---------------------------------------------------------------------------------------------------------------------------------
+/* ******* LAYS OUT THE FLOORS OF ALL THE COLUMNS IN ONE PASS OVER INT ARRAYS AND VALIDATES THEM, THEN THE BATTERY IS CREATED ******* */
+/* ******* WITH EVERY LIST PRESIZED: java Commercial_Controller buildings <file> BUILDS ALL THE BATTERIES OF A CONFIGURATION FILE ******* */
+class BatteryBuilder {
+    int id;
+    int numberOfColumns;
+    int totalNumberOfFloors;
+    int numberOfBasements;
+    int numberOfElevatorsPerColumn;
+    BatteryStatus status;
+    ClockMode clockMode;
+    int[] zoneMaxFloors;                   //maxFloor of each column above the lobby, in order, null to split the floors evenly
+    int numberOfFloors;                    //Floors of the building excluding the number of basements
+    int numberOfFloorsPerColumn;           //Floors of each column above the lobby when they are split evenly
+    int[] minFloorsArray;                  //minFloor of each column, set by layoutColumns
+    int[] maxFloorsArray;                  //maxFloor of each column, set by layoutColumns
+    int[] servedFloorsArray;               //numberServedFloors of each column (the lobby included), set by layoutColumns
+
+    //----------------- Constructor and its attributes -----------------//
+    public BatteryBuilder(int id, int numberOfColumns, int totalNumberOfFloors, int numberOfBasements, int numberOfElevatorsPerColumn) {
+        this.id = id;
+        this.numberOfColumns = numberOfColumns;
+        this.totalNumberOfFloors = totalNumberOfFloors;
+        this.numberOfBasements = numberOfBasements;
+        this.numberOfElevatorsPerColumn = numberOfElevatorsPerColumn;
+        this.status = BatteryStatus.ACTIVE;
+        this.clockMode = ClockMode.VIRTUAL;
+    }
+
+    public BatteryBuilder withStatus(BatteryStatus status) {
+        this.status = status;
+        return this;
+    }
+
+    public BatteryBuilder withClockMode(ClockMode clockMode) {
+        this.clockMode = clockMode;
+        return this;
+    }
+
+    public BatteryBuilder withZones(int[] zoneMaxFloors) {
+        this.zoneMaxFloors = zoneMaxFloors;
+        return this;
+    }
+
+    public Battery build() {
+        return new Battery(this);
+    }
+
+
+    //----------------- Methods for logic -----------------//
+    /* ******* THE FIRST COLUMN SERVES THE BASEMENTS, UNLESS IT IS THE ONLY COLUMN: THEN IT SERVES ALL THE FLOORS ******* */
+    public int firstColumnAboveLobby() {
+        return this.numberOfBasements > 0 && this.numberOfColumns > 1 ? 1 : 0;
+    }
+
+    /* ******* CHECK THE SIZES OF THE BUILDING AND THE ZONES, THE ERROR NAMES THE FIRST WRONG VALUE ******* */
+    public void validate() {
+        if (this.numberOfColumns < 1 || this.numberOfColumns > 26) {
+            throw new IllegalArgumentException("A battery has 1 to 26 columns (A to Z), not " + this.numberOfColumns);
+        }
+        if (this.numberOfElevatorsPerColumn < 1) {
+            throw new IllegalArgumentException("A column has at least 1 elevator, not " + this.numberOfElevatorsPerColumn);
+        }
+        if (this.numberOfBasements < 0) {
+            throw new IllegalArgumentException("The number of basements is positive, not " + this.numberOfBasements);
+        }
+        int numberOfZones = this.numberOfColumns - this.firstColumnAboveLobby();
+        if (this.totalNumberOfFloors - this.numberOfBasements < numberOfZones) {
+            throw new IllegalArgumentException("The " + (this.totalNumberOfFloors - this.numberOfBasements) + " floors above the basements cannot be split between " + numberOfZones + " columns");
+        }
+        if (this.zoneMaxFloors != null) {
+            if (this.zoneMaxFloors.length != numberOfZones) {
+                throw new IllegalArgumentException("There are " + numberOfZones + " columns above the lobby, not " + this.zoneMaxFloors.length + " zones");
+            }
+            int minimumFloor = 1;
+            int numberOfFloors = this.totalNumberOfFloors - this.numberOfBasements;
+            for (int i = 0; i < this.zoneMaxFloors.length; i++) {
+                if (this.zoneMaxFloors[i] <= minimumFloor || this.zoneMaxFloors[i] > numberOfFloors || i == this.zoneMaxFloors.length - 1 && this.zoneMaxFloors[i] != numberOfFloors) {
+                    throw new IllegalArgumentException("Invalid zones " + Arrays.toString(this.zoneMaxFloors) + ", they go up from the lobby to the floor " + numberOfFloors);
+                }
+                minimumFloor = this.zoneMaxFloors[i] + 1;
             }
-            this.columnsList.get(i).minFloor = minimumFloor;
-            this.columnsList.get(i).maxFloor = (this.columnsList.get(i).minFloor + numberOfFloorsPerColumn - 1);
-            minimumFloor = this.columnsList.get(i).maxFloor + 1; //setting the minimum floor for the next column
         }
     }
 
-    /* ******* LOGIC TO SET THE minFloor AND maxFloor IF THERE IS JUST ONE COLUMN ******* */
-    private void initializeUniqueColumnFloors() {
+    /* ******* SET THE minFloor, maxFloor AND numberServedFloors OF EVERY COLUMN, THE REMAINING FLOORS GO TO THE LAST COLUMN ******* */
+    public void layoutColumns() {
+        this.validate();
+        this.numberOfFloors = this.totalNumberOfFloors - this.numberOfBasements;
+        int firstColumn = this.firstColumnAboveLobby();
+        this.numberOfFloorsPerColumn = this.numberOfFloors / (this.numberOfColumns - firstColumn);
+        this.minFloorsArray = new int[this.numberOfColumns];
+        this.maxFloorsArray = new int[this.numberOfColumns];
+        this.servedFloorsArray = new int[this.numberOfColumns];
+        if (firstColumn == 1) { //the first column serves the basements + RDC
+            this.minFloorsArray[0] = this.numberOfBasements * -1;
+            this.maxFloorsArray[0] = 1;
+            this.servedFloorsArray[0] = this.numberOfBasements + 1;
+        }
         int minimumFloor = 1;
-        this.columnsList.get(0).numberServedFloors = totalNumberOfFloors;
-        if (numberOfBasements > 0) { //if there is basement
-            this.columnsList.get(0).minFloor = numberOfBasements;
-        } else { //if there is NO basement
-            this.columnsList.get(0).minFloor = minimumFloor;
-            this.columnsList.get(0).maxFloor = numberOfFloors;
+        for (int i = firstColumn; i < this.numberOfColumns; i++) {
+            int zone = i - firstColumn;
+            this.minFloorsArray[i] = minimumFloor;
+            if (i == this.numberOfColumns - 1) {
+                this.maxFloorsArray[i] = this.numberOfFloors;
+            } else {
+                this.maxFloorsArray[i] = this.zoneMaxFloors != null ? this.zoneMaxFloors[zone] : this.numberOfFloorsPerColumn * (zone + 1);
+            }
+            this.servedFloorsArray[i] = this.maxFloorsArray[i] - minimumFloor + (minimumFloor == 1 ? 1 : 2); //Add 1 floor for the RDC/ground floor
+            minimumFloor = this.maxFloorsArray[i] + 1;
+        }
+        if (firstColumn == 0 && this.numberOfBasements > 0) { //a unique column also serves the basements
+            this.minFloorsArray[0] = this.numberOfBasements * -1;
+            this.servedFloorsArray[0] = this.totalNumberOfFloors;
         }
     }
-
 }
 
 
@@ -201,9 +555,25 @@ class Column {
     int numberServedFloors;
     int numberOfBasements;
     Battery battery;
+    Simulation simulation;                 //Event loop of the column, the only thread changing the column and its elevators
+    DispatchStrategy dispatchStrategy;     //Chooses the elevator answering a call
+    SensorSource sensorSource;             //Readings of the weight and obstruction sensors of the elevators
+    ParkingPlanner parkingPlanner;         //Sends the IDLE elevators where the next calls are expected, null when the parking is off (default)
+    ColumnMetrics metrics;
+    FleetState fleet;                      //Floors, statuses and stops of the elevators, in the order of elevatorsList
     List<Elevator> elevatorsList;
     List<Button> buttonsUpList;
     List<Button> buttonsDownList;
+    int lowestFixtureFloor;                //Lowest floor with a fixture: the lowest basement OR the lobby
+    int highestFixtureFloor;               //Highest floor with a fixture: the maxFloor OR the lobby
+    Button[] buttonsUpArray;               //UP buttons indexed by floorIndex(floor), null where there is no button
+    Button[] buttonsDownArray;             //DOWN buttons indexed by floorIndex(floor), null where there is no button
+    StopSet landingFloors;                 //Floors where the elevators have a landing (door, display, floor button): the lobby and minFloor to maxFloor
+    Elevator[] assignedUpArray;            //Elevator answering the UP call of each floor while its button is ON, indexed by floorIndex(floor)
+    Elevator[] assignedDownArray;          //Elevator answering the DOWN call of each floor while its button is ON, indexed by floorIndex(floor)
+    Queue<HallCall> hallCallsQueue;        //Calls pressed from any thread, dispatched in batches by the simulation thread
+    PendingCallRegistry pendingCalls;      //Calls dispatched and not answered yet, the oldest first, given to a better elevator when they wait too long
+    AtomicBoolean isDispatchScheduled;
 
     //----------------- Constructor and its attributes -----------------//
     public Column(int id, char name, ColumnStatus columnStatus, int numberOfElevatorsPerColumn, int numberServedFloors, int numberOfBasements, Battery battery) {
@@ -214,9 +584,16 @@ class Column {
         this.numberServedFloors = numberServedFloors;
         this.numberOfBasements = numberOfBasements * -1;
         this.battery = battery;
-        this.elevatorsList = new ArrayList<>();
+        this.simulation = new Simulation(battery.clockMode);
+        this.dispatchStrategy = new PriorityDispatchStrategy();
+        this.sensorSource = new RandomSensorSource(new SplittableRandom());
+        this.metrics = new ColumnMetrics();
+        this.elevatorsList = new ArrayList<>(numberOfElevatorsPerColumn);
         this.buttonsUpList = new ArrayList<>();
         this.buttonsDownList = new ArrayList<>();
+        this.hallCallsQueue = new ConcurrentLinkedQueue<>();
+        this.pendingCalls = new PendingCallRegistry(this);
+        this.isDispatchScheduled = new AtomicBoolean(false);
     }
 
 
@@ -229,8 +606,24 @@ class Column {
 
 
     //----------------- Methods to create a list -----------------//
+    /* ******* FIND THE RANGE OF FLOORS WITH FIXTURES (THE LOBBY IS ALWAYS SERVED), CREATE THE ARRAYS OF BUTTONS AND THE LANDINGS SHARED BY THE ELEVATORS ******* */
+    public void initializeFixtureFloors() {
+        this.lowestFixtureFloor = Math.min(this.minFloor, 1);
+        this.highestFixtureFloor = Math.max(this.maxFloor, 1);
+        this.buttonsUpArray = new Button[this.highestFixtureFloor - this.lowestFixtureFloor + 1];
+        this.buttonsDownArray = new Button[this.highestFixtureFloor - this.lowestFixtureFloor + 1];
+        this.assignedUpArray = new Elevator[this.highestFixtureFloor - this.lowestFixtureFloor + 1];
+        this.assignedDownArray = new Elevator[this.highestFixtureFloor - this.lowestFixtureFloor + 1];
+        this.landingFloors = new StopSet(this.lowestFixtureFloor, this.highestFixtureFloor);
+        this.landingFloors.add(1);
+        for (int floor = this.minFloor; floor <= this.maxFloor; floor++) {
+            this.landingFloors.add(floor);
+        }
+    }
+
     /* ******* CREATE A LIST OF ELEVATORS FOR THE COLUMN ******* */
     public void createElevatorsList() {
+        this.fleet = new FleetState(this.numberOfElevatorsPerColumn, this.lowestFixtureFloor, this.highestFixtureFloor);
         for (int i = 1; i <= this.numberOfElevatorsPerColumn; i++) {
             this.elevatorsList.add(new Elevator(i, this.numberServedFloors, 1, ElevatorStatus.IDLE, SensorStatus.OFF, SensorStatus.OFF, this));
         }
@@ -238,14 +631,17 @@ class Column {
 
     /* ******* CREATE A LIST WITH UP BUTTONS FROM THE FIRST FLOOR TO THE LAST LAST BUT ONE FLOOR ******* */
     public void createButtonsUpList() {
+        this.buttonsUpList = new ArrayList<>(Math.max(this.maxFloor - this.minFloor, 0) + 1); //presized for the lobby and minFloor to maxFloor - 1
         buttonsUpList.add(new Button(1, ButtonStatus.OFF, 1));
         for (int i = minFloor; i < this.maxFloor; i++) {
             this.buttonsUpList.add(new Button(i, ButtonStatus.OFF, i));
         }
+        this.buttonsUpList.forEach(button -> this.indexByFloor(this.buttonsUpArray, button, button.floor));
     }
 
     /* ******* CREATE A LIST WITH DOWN BUTTONS FROM THE SECOND FLOOR TO THE LAST FLOOR ******* */
     public void createButtonsDownList() {
+        this.buttonsDownList = new ArrayList<>(Math.max(this.maxFloor, 1)); //presized for the lobby and 2 to maxFloor
         buttonsDownList.add(new Button(1, ButtonStatus.OFF, 1));
         int minBuildingFloor;
         if (numberOfBasements > 0) {
@@ -256,128 +652,225 @@ class Column {
         for (int i = (minBuildingFloor + 1); i <= this.maxFloor; i++) {
             this.buttonsDownList.add(new Button(i, ButtonStatus.OFF, i));
         }
+        this.buttonsDownList.forEach(button -> this.indexByFloor(this.buttonsDownArray, button, button.floor));
     }
 
 
-    //----------------- Methods for logic -----------------//   
-    /* ******* LOGIC TO FIND THE BEST ELEVATOR WITH A PRIORITIZATION LOGIC ******* */
-    public Elevator findElevator(int currentFloor, Direction direction) {
-        Elevator bestElevator;
-        List<Elevator> activeElevatorList = new ArrayList<>();
-        List<Elevator> idleElevatorList = new ArrayList<>();
-        List<Elevator> sameDirectionElevatorList = new ArrayList<>();
-        this.elevatorsList.forEach(elevator -> {
-            if (elevator.status != ElevatorStatus.IDLE) {
-                //Verify if the request is on the elevators way, otherwise the elevator will just continue its way ignoring this call
-                if (elevator.status == ElevatorStatus.UP && elevator.floor <= currentFloor || elevator.status == ElevatorStatus.DOWN && elevator.floor >= currentFloor) {
-                    activeElevatorList.add(elevator);
-                }
-            } else {
-                idleElevatorList.add(elevator);
-            }
-        });
-
-        if (activeElevatorList.size() > 0) { //Create new list for elevators with same direction that the request
-            sameDirectionElevatorList = activeElevatorList.stream().filter(elevator -> elevator.status.name().equals(direction.name())).collect(Collectors.toList());
+    //----------------- Methods for fixture arrays -----------------//
+    /* ******* GET THE INDEX OF A FLOOR IN THE FIXTURE ARRAYS, RETURNS -1 IF THE COLUMN HAS NO FIXTURE AT THIS FLOOR ******* */
+    public int floorIndex(int floor) {
+        if (floor < this.lowestFixtureFloor || floor > this.highestFixtureFloor) {
+            return -1;
         }
+        return floor - this.lowestFixtureFloor;
+    }
 
-        if (sameDirectionElevatorList.size() > 0) {
-            bestElevator = this.findNearestElevator(currentFloor, sameDirectionElevatorList); // 1- Try to use an elevator that is moving and has the same direction
-        } else if (idleElevatorList.size() > 0){
-            bestElevator = this.findNearestElevator(currentFloor, idleElevatorList); // 2- Try to use an elevator that is IDLE
-        } else {
-            bestElevator = this.findNearestElevator(currentFloor, activeElevatorList); // 3- As the last option, uses an elevator that is moving at the contrary direction
+    /* ******* FIND THE FIXTURE OF A FLOOR IN CONSTANT TIME, RETURNS null IF THERE IS NONE ******* */
+    public <T> T findByFloor(T[] fixturesArray, int floor) {
+        int index = this.floorIndex(floor);
+        return index == -1 ? null : fixturesArray[index];
+    }
+
+    /* ******* PUT A FIXTURE IN THE ARRAY AT THE INDEX OF ITS FLOOR, THE FIRST ONE CREATED FOR A FLOOR IS KEPT ******* */
+    public <T> void indexByFloor(T[] fixturesArray, T fixture, int floor) {
+        int index = this.floorIndex(floor);
+        if (index != -1 && fixturesArray[index] == null) {
+            fixturesArray[index] = fixture;
         }
+    }
 
-        return bestElevator;
+
+    //----------------- Methods for logic -----------------//   
+    /* ******* LOGIC TO FIND THE BEST ELEVATOR, THE CHOICE IS MADE BY THE DISPATCH STRATEGY OF THE COLUMN ******* */
+    public Elevator findElevator(int currentFloor, Direction direction) {
+        return this.dispatchStrategy.selectElevator(this, currentFloor, direction);
     }
 
     /* ******* LOGIC TO FIND THE NEAREST ELEVATOR ******* */
     public Elevator findNearestElevator(int currentFloor, List<Elevator> selectedList) {
         Elevator bestElevator = selectedList.get(0);
-        int bestDistance = Math.abs(selectedList.get(0).floor - currentFloor); //Math.abs() returns the absolute value of a number (always positive).
+        int bestDistance = Math.abs(selectedList.get(0).getFloor() - currentFloor); //Math.abs() returns the absolute value of a number (always positive).
         for (Elevator elevator : selectedList) {
-            if (Math.abs(elevator.floor - currentFloor) < bestDistance) {
+            if (Math.abs(elevator.getFloor() - currentFloor) < bestDistance) {
                 bestElevator = elevator;
+                bestDistance = Math.abs(elevator.getFloor() - currentFloor);
             }
         }
-        System.out.println();
-        System.out.println("-----------------------------------------------------");
-        System.out.println("   > > >> >>> ELEVATOR " + this.name + bestElevator.id + " WAS CALLED <<< << < <");
-        System.out.println("-----------------------------------------------------");
-
         return bestElevator;
     }
 
     /* ******* LOGIC TO TURN ON THE BUTTONS FOR THE ASKED DIRECTION ******* */
-    private void manageButtonStatusOn(int requestedFloor, Direction direction) {
-        if (direction == Direction.UP) {
-            //find the UP button by ID
-            Optional<Button> currentButton = this.buttonsUpList.stream().filter(door -> door.id == requestedFloor).findFirst();
-            if (currentButton.isPresent()) {
-                currentButton.get().status = ButtonStatus.ON;
-            }
+    public void manageButtonStatusOn(int requestedFloor, Direction direction) {
+        Button currentButton = this.findByFloor(direction == Direction.UP ? this.buttonsUpArray : this.buttonsDownArray, requestedFloor); //find the UP or DOWN button by floor
+        if (currentButton != null) {
+            currentButton.status = ButtonStatus.ON;
+        }
+    }
+
+    /* ******* THE CALLS OF THE FLOOR ARE ANSWERED, THE NEXT PRESS OF ITS BUTTONS IS A NEW CALL ******* */
+    public void clearAssignedElevators(int floor) {
+        int index = this.floorIndex(floor);
+        if (index >= 0 && index < this.assignedUpArray.length) {
+            this.assignedUpArray[index] = null;
+            this.assignedDownArray[index] = null;
+        }
+    }
+
+    /* ******* THE COLUMN HAS TOO MANY CALLS WAITING, THE CALLERS SHOULD SLOW DOWN (THE CallServer STOPS READING), ANY THREAD ******* */
+    public boolean isSaturated() {
+        return this.pendingCalls.pendingCount > this.pendingCalls.saturationCount;
+    }
+
+    /* ******* CHANGE THE COLUMN ON ITS OWN THREAD IF IT IS STARTED, OTHERWISE RIGHT AWAY ******* */
+    public void submitOrRun(Runnable action) {
+        if (this.simulation.isStarted) {
+            this.simulation.submit(action);
         } else {
-            //find the DOWN button by ID
-            Optional<Button> currentButton = this.buttonsDownList.stream().filter(door -> door.id == requestedFloor).findFirst();
-            if (currentButton.isPresent()) {
-                currentButton.get().status = ButtonStatus.ON;
-            }
+            action.run();
         }
     }
 
+    /* ******* TAKE AN IMMUTABLE SNAPSHOT OF THE COLUMN, BUILT BY THE THREAD OWNING THE COLUMN SO IT IS CONSISTENT ******* */
+    public CompletableFuture<ColumnSnapshot> takeSnapshot() {
+        CompletableFuture<ColumnSnapshot> snapshot = new CompletableFuture<>();
+        this.simulation.submit(() -> snapshot.complete(new ColumnSnapshot(this)));
+        return snapshot;
+    }
+
 
     //----------------- Entry method -----------------//
     /* ******* ENTRY METHOD ******* */
     /* ******* REQUEST FOR AN ELEVATOR BY PRESSING THE UP OU DOWN BUTTON OUTSIDE THE ELEVATOR ******* */
-    public void requestElevator(int requestedFloor, Direction direction) { // User goes to the specific column and press a button outside the elevator requesting for an elevator
-        manageButtonStatusOn(requestedFloor, direction); //turn ON the good button
-//        System.out.println(">> Someone request an elevator from floor <" + requestedFloor + "> and direction <" + direction + "> <<");
-        Elevator bestElevator = this.findElevator(requestedFloor, direction);
-        if (bestElevator.floor != requestedFloor) {
-            bestElevator.addFloorToFloorList(requestedFloor);
-            bestElevator.moveElevator(requestedFloor);
+    /* ******* RETURNS RIGHT AWAY, THE FUTURE IS COMPLETED WHEN THE ELEVATOR OPENS ITS DOORS AT THE REQUESTED FLOOR ******* */
+    public CompletableFuture<Elevator> requestElevator(int requestedFloor, Direction direction) { // User goes to the specific column and press a button outside the elevator requesting for an elevator
+        return this.requestElevator(requestedFloor, direction, null);
+    }
+
+    /* ******* SAME, THE ASSIGNMENT FUTURE (IF NOT null) IS COMPLETED WITH THE ELEVATOR ANSWERING THE CALL AS SOON AS IT IS CHOSEN ******* */
+    public CompletableFuture<Elevator> requestElevator(int requestedFloor, Direction direction, CompletableFuture<Elevator> assignment) {
+        return this.requestElevator(requestedFloor, direction, assignment, new CompletableFuture<>());
+    }
+
+    /* ******* SAME WITH THE ARRIVAL FUTURE OF THE CALLER, ITS CALLBACKS ADDED BEFORE THE CALL RUN ON THE THREAD OF THE COLUMN ******* */
+    /* ******* WHEN THE DOORS OPEN (LIKE elevator.post FOR A FLOOR REQUEST) ******* */
+    public CompletableFuture<Elevator> requestElevator(int requestedFloor, Direction direction, CompletableFuture<Elevator> assignment, CompletableFuture<Elevator> arrival) {
+        this.hallCallsQueue.add(new HallCall(requestedFloor, direction, arrival, assignment));
+        if (this.isDispatchScheduled.compareAndSet(false, true)) { //only one dispatch pass is needed for all the waiting calls
+            this.simulation.submit(this::dispatchHallCalls);
+        }
+        return arrival;
+    }
+
+    /* ******* LOGIC TO DISPATCH ALL THE WAITING CALLS IN ONE PASS ON THE SIMULATION THREAD ******* */
+    /* ******* A CALL FOR A BUTTON ALREADY ON JOINS THE ELEVATOR ANSWERING IT, WITHOUT LOOKING FOR AN ELEVATOR AGAIN ******* */
+    private void dispatchHallCalls() {
+        this.isDispatchScheduled.set(false);
+        long callTime = this.simulation.currentTime;
+        HallCall call;
+        while ((call = this.hallCallsQueue.poll()) != null) {
+            CompletableFuture<Elevator> arrival = call.arrival;
+            try {
+                this.battery.eventSink.hallCallRequested(this, call.floor, call.direction);
+                this.metrics.hallCalls.increment();
+                if (this.parkingPlanner != null) {
+                    this.parkingPlanner.recordCall(call.floor, callTime);
+                }
+                arrival.thenRun(() -> this.metrics.waitHistogram.record(this.simulation.currentTime - callTime));
+                int index = this.floorIndex(call.floor);
+                Elevator[] assignedArray = call.direction == Direction.UP ? this.assignedUpArray : this.assignedDownArray;
+                boolean hasIndex = index >= 0 && index < assignedArray.length;
+                if (hasIndex && assignedArray[index] != null) { //Duplicate press, the button is already ON
+                    this.metrics.coalescedCalls.increment();
+                    assignedArray[index].post(call.floor, arrival, false);
+                    this.pendingCalls.join(index, call.direction, arrival);
+                    if (call.assignment != null) {
+                        call.assignment.complete(assignedArray[index]);
+                    }
+                    continue;
+                }
+                manageButtonStatusOn(call.floor, call.direction); //turn ON the good button
+//                System.out.println(">> Someone request an elevator from floor <" + call.floor + "> and direction <" + call.direction + "> <<");
+                long decisionStartTime = System.nanoTime();
+                Elevator bestElevator = this.findElevator(call.floor, call.direction);
+                this.metrics.decisionHistogram.record(System.nanoTime() - decisionStartTime);
+                if (hasIndex) {
+                    assignedArray[index] = bestElevator;
+                }
+                this.battery.eventSink.callAssigned(bestElevator, call.floor);
+                bestElevator.post(call.floor, arrival, false);
+                this.pendingCalls.register(hasIndex ? index : -1, call.floor, call.direction, bestElevator, arrival, callTime);
+                if (call.assignment != null) {
+                    call.assignment.complete(bestElevator);
+                }
+            } catch (RuntimeException e) {
+                arrival.completeExceptionally(e);
+                if (call.assignment != null) {
+                    call.assignment.completeExceptionally(e);
+                }
+            }
         }
     }
 }
 
+/* ******* CALL MADE BY PRESSING AN UP OR DOWN BUTTON, WAITING IN THE QUEUE OF THE COLUMN ******* */
+class HallCall {
+    int floor;
+    Direction direction;
+    CompletableFuture<Elevator> arrival;
+    CompletableFuture<Elevator> assignment; //Completed with the elevator answering the call when it is chosen, null when nobody waits for it
+
+    public HallCall(int floor, Direction direction, CompletableFuture<Elevator> arrival) {
+        this(floor, direction, arrival, null);
+    }
+
+    public HallCall(int floor, Direction direction, CompletableFuture<Elevator> arrival, CompletableFuture<Elevator> assignment) {
+        this.floor = floor;
+        this.direction = direction;
+        this.arrival = arrival;
+        this.assignment = assignment;
+    }
+}
+
 
 //------------------------------------------- ELEVATOR CLASS ----------------------------------------------------------------------
 //---------------------------------------------------------------------------------------------------------------------------------
 class Elevator {
     int id;
     int numberServedFloors;
-    int floor;
-    ElevatorStatus status;
+    int fleetIndex;                        //Index of the floor, status and stops of the elevator in column.fleet
     SensorStatus weightSensorStatus;
     SensorStatus obstructionSensorStatus;
     Column column;
     Door elevatorDoor;
     Display elevatorDisplay;
-    List<Door> floorDoorsList;
-    List<Display> floorDisplaysList;
-    List<Button> floorButtonsList;
-    List<Integer> floorList;
+    int displayFloor;                      //Floor shown by the displays of the elevator at every landing of column.landingFloors
+    StopSet floorButtonsOn;                //Floor buttons ON, one bit per landing, the landings are shared in column.landingFloors
+    StopSet stopSet;                       //Floors where the elevator has to stop
+    boolean isRunning;                     //true while the next step of the elevator is scheduled on the simulation
+    int parkingFloor;                      //Floor where the elevator goes to wait for the next call, StopSet.NONE when it is not parking
+    Queue<FloorRequest> mailbox;           //Requests posted from any thread, processed by the elevator on the simulation thread
+    AtomicBoolean isMailboxScheduled;
+    Map<Integer, List<CompletableFuture<Elevator>>> arrivalsMap; //Futures completed when the doors open at the floor
+    ElevatorMetrics metrics;
 
     //----------------- Constructor and its attributes -----------------//
     public Elevator(int id, int numberServedFloors, int floor, ElevatorStatus elevatorStatus, SensorStatus weightSensorStatus, SensorStatus obstructionSensorStatus, Column column) {
         this.id = id;
         this.numberServedFloors = numberServedFloors;
-        this.floor = floor;
-        this.status = elevatorStatus;
+        this.fleetIndex = column.fleet.add(floor, elevatorStatus);
         this.weightSensorStatus = weightSensorStatus;
         this.obstructionSensorStatus = obstructionSensorStatus;
         this.column = column;
         this.elevatorDoor = new Door(0, DoorStatus.CLOSED, 0);
         this.elevatorDisplay = new Display(0, DisplayStatus.ON, 0);
-        this.floorDoorsList = new ArrayList<>();
-        this.floorDisplaysList = new ArrayList<>();
-        this.floorButtonsList = new ArrayList<>();
-        this.floorList = new ArrayList<>();
-
-        this.createFloorDoorsList();
-        this.createDisplaysList();
-        this.createFloorButtonsList();
+        this.displayFloor = floor;
+        this.floorButtonsOn = new StopSet(column.lowestFixtureFloor, column.highestFixtureFloor);
+        this.stopSet = column.fleet.createStopSet(this.fleetIndex);
+        this.parkingFloor = StopSet.NONE;
+        this.mailbox = new ConcurrentLinkedQueue<>();
+        this.isMailboxScheduled = new AtomicBoolean(false);
+        this.arrivalsMap = new HashMap<>();
+        this.metrics = new ElevatorMetrics(elevatorStatus);
     }
 
 
@@ -385,220 +878,297 @@ class Elevator {
     /* ******* GET A STRING REPRESENTATION OF ELEVATOR OBJECT ******* */
     @Override
     public String toString() {
-        return "elevator" + column.name + this.id + " | Floor: " + this.floor + " | Status: " + this.status;
+        return "elevator" + column.name + this.id + " | Floor: " + this.getFloor() + " | Status: " + this.getStatus();
     }
 
 
-    //----------------- Methods to create a list -----------------//
-    /* ******* CREATE A LIST WITH A DOOR OF EACH FLOOR ******* */
-    public void createFloorDoorsList() {
-        floorDoorsList.add(new Door(1, DoorStatus.CLOSED, 1));
-        for (int i = column.minFloor; i <= this.column.maxFloor; i++) {
-            this.floorDoorsList.add(new Door(i, DoorStatus.CLOSED, i));
-        }
+    //----------------- Methods for the fleet state -----------------//
+    /* ******* THE FLOOR AND THE STATUS OF THE ELEVATOR ARE KEPT IN THE ARRAYS OF column.fleet, THE ELEVATOR IS A VIEW ON THEM ******* */
+    public int getFloor() {
+        return this.column.fleet.floorsArray[this.fleetIndex];
     }
 
-    /* ******* CREATE A LIST WITH A DISPLAY OF EACH FLOOR ******* */
-    public void createDisplaysList() {
-        floorDisplaysList.add(new Display(1, DisplayStatus.ON, 1));
-        for (int i = column.minFloor; i <= this.column.maxFloor; i++) {
-            this.floorDisplaysList.add(new Display(i, DisplayStatus.ON, i));
-        }
+    public void setFloor(int floor) {
+        this.column.fleet.floorsArray[this.fleetIndex] = floor;
     }
 
-    /* ******* CREATE A LIST WITH A BUTTON OF EACH FLOOR ******* */
-    public void createFloorButtonsList() {
-        floorButtonsList.add(new Button(1, ButtonStatus.OFF, 1));
-        for (int i = column.minFloor; i <= this.column.maxFloor; i++) {
-            this.floorButtonsList.add(new Button(i, ButtonStatus.OFF, i));
+    public ElevatorStatus getStatus() {
+        return this.column.fleet.getStatus(this.fleetIndex);
+    }
+
+    /* ******* LOGIC TO CHANGE THE STATUS AND COUNT THE TIME SPENT IN EACH STATUS ******* */
+    public void setStatus(ElevatorStatus status) {
+        if (status != this.getStatus()) {
+            this.metrics.statusChanged(status, this.column.simulation.currentTime);
+            this.column.fleet.setStatus(this.fleetIndex, status);
         }
     }
 
 
+    //----------------- Methods for the landings -----------------//
+    /* ******* STATUS OF THE DOOR OF THE ELEVATOR AT A LANDING, ONLY THE DOOR OF THE FLOOR WHERE THE ELEVATOR IS CAN BE OPENED ******* */
+    public DoorStatus floorDoorStatus(int floor) {
+        return floor == this.getFloor() && this.column.landingFloors.contains(floor) ? this.elevatorDoor.status : DoorStatus.CLOSED;
+    }
+
+    /* ******* STATUS OF THE FLOOR BUTTON INSIDE THE ELEVATOR ******* */
+    public ButtonStatus floorButtonStatus(int floor) {
+        return this.floorButtonsOn.contains(floor) ? ButtonStatus.ON : ButtonStatus.OFF;
+    }
+
+
     //----------------- Methods for logic -----------------//
     /* ******* LOGIC TO MOVE ELEVATOR ******* */
     public void moveElevator(int requestedFloor) {
+        if (this.getStatus() == ElevatorStatus.IDLE) {
+            if (this.getFloor() < requestedFloor) {
+                this.setStatus(ElevatorStatus.UP);
+            } else if (this.getFloor() > requestedFloor) {
+                this.setStatus(ElevatorStatus.DOWN);
+            }
+        }
+        if (!this.isRunning) { //the elevator is stopped, start its route on the simulation
+            this.isRunning = true;
+            this.column.simulation.schedule(0, this::nextStep);
+        }
+    }
 
-        while (this.floorList.size() > 0) {
-            if (this.status == ElevatorStatus.IDLE) {
-                if (this.floor < requestedFloor) {
-                    this.status = ElevatorStatus.UP;
-                } else if (this.floor > requestedFloor) {
-                    this.status = ElevatorStatus.DOWN;
-                } else {
-                    this.openDoors();
-                    this.deleteFloorFromList(requestedFloor);
-                    manageButtonStatusOff(requestedFloor);
-                }
+    /* ******* LOGIC TO RESTART THE ROUTE OF AN ELEVATOR RESTORED WITH STOPS OR WITH ITS DOORS OPENED ******* */
+    public void resumeRoute() {
+        if (!this.isRunning && (this.stopSet.size > 0 || this.elevatorDoor.status == DoorStatus.OPENED)) {
+            this.isRunning = true;
+            this.column.simulation.schedule(0, this::nextStep);
+        }
+    }
+
+    /* ******* LOGIC TO RUN THE NEXT STEP OF THE ROUTE, EACH STEP SCHEDULES THE FOLLOWING ONE ON THE SIMULATION ******* */
+    private void nextStep() {
+        Simulation simulation = this.column.simulation;
+        this.column.pendingCalls.ageIfDue(simulation.currentTime);
+        if (this.elevatorDoor.status == DoorStatus.OPENED) { // 1- The dwell time is over, close the doors before anything else
+            long waitingTime = this.closeDoors();
+            simulation.schedule(waitingTime, this::nextStep);
+        } else if (this.stopSet.contains(this.getFloor())) { // 2- Serve the stop of the current floor
+            this.openDoors();
+            this.deleteFloorFromList(this.getFloor());
+            this.manageButtonStatusOff(this.getFloor());
+            this.completeArrivals(this.getFloor());
+            simulation.schedule(simulation.doorDwellTime, this::nextStep);
+        } else if (this.stopSet.size == 0 && this.parkingFloor != StopSet.NONE && this.parkingFloor != this.getFloor()) { // 3- No more stops, go on to the parking floor without opening the doors
+            this.setStatus(this.parkingFloor > this.getFloor() ? ElevatorStatus.UP : ElevatorStatus.DOWN);
+            if (this.getStatus() == ElevatorStatus.UP) {
+                this.moveUp();
+            } else {
+                this.moveDown();
+            }
+        } else if (this.stopSet.size == 0) { // 4- No more stops, the elevator waits for the next request
+            this.setStatus(ElevatorStatus.IDLE);
+            this.isRunning = false;
+//            System.out.println("       Elevator" + column.name + this.id + " is now " + this.getStatus());
+            this.park();
+        } else { // 5- Move one floor in the direction of the next stop, turning back when there is no stop left in this direction
+            if (this.getStatus() == ElevatorStatus.UP && this.stopSet.nextAbove(this.getFloor()) == StopSet.NONE) {
+                this.setStatus(ElevatorStatus.DOWN);
+            } else if (this.getStatus() == ElevatorStatus.DOWN && this.stopSet.nextBelow(this.getFloor()) == StopSet.NONE) {
+                this.setStatus(ElevatorStatus.UP);
+            } else if (this.getStatus() == ElevatorStatus.IDLE) {
+                this.setStatus(this.stopSet.nextAbove(this.getFloor()) != StopSet.NONE ? ElevatorStatus.UP : ElevatorStatus.DOWN);
             }
-            if (this.status == ElevatorStatus.UP) {
+            if (this.getStatus() == ElevatorStatus.UP) {
                 this.moveUp();
-            } else if (this.status == ElevatorStatus.DOWN) {
+            } else {
                 this.moveDown();
             }
         }
     }
 
-    /* ******* LOGIC TO MOVE UP ******* */
-    public void moveUp() {
-        List<Integer> tempArray = new ArrayList<>(this.floorList);
-        for (int i = this.floor; i < tempArray.get(tempArray.size() - 1); i++) {
-            final int j = i;
-            Optional<Door> currentDoor = this.floorDoorsList.stream().filter(door -> door.id == j).findFirst();
-            if (currentDoor.isPresent() && currentDoor.get().status == DoorStatus.OPENED || this.elevatorDoor.status == DoorStatus.OPENED) {
-                System.out.println("   Doors are open, closing doors before move up");
-                this.closeDoors();
-            }
-            System.out.println("Moving elevator" + column.name + this.id + " <up> from floor " + i + " to floor " + (i + 1));
-            int nextFloor = (i + 1);
-            this.floor = nextFloor;
-            this.updateDisplays(this.floor);
-
-            if (tempArray.contains(nextFloor)) {
-                this.openDoors();
-                this.deleteFloorFromList(nextFloor);
-                this.manageButtonStatusOff(nextFloor);
-            }
-        }
-        if (this.floorList.size() == 0) {
-            this.status = ElevatorStatus.IDLE;
-//            System.out.println("       Elevator" + column.name + this.id + " is now " + this.status);
-        } else {
-            this.status = ElevatorStatus.DOWN;
-//            System.out.println("       Elevator" + column.name + this.id + " is now going " + this.status);
+    /* ******* LOGIC TO SEND THE IDLE ELEVATOR TO THE FLOOR WHERE THE PARKING PLANNER OF THE COLUMN EXPECTS THE NEXT CALLS ******* */
+    /* ******* AN ELEVATOR ARRIVING AT ITS PARKING FLOOR STAYS THERE UNTIL ITS NEXT REQUEST ******* */
+    private void park() {
+        boolean isParked = this.parkingFloor == this.getFloor();
+        this.parkingFloor = StopSet.NONE;
+        if (this.column.parkingPlanner == null || isParked) {
+            return;
+        }
+        int parkingFloor = this.column.parkingPlanner.chooseParkingFloor(this);
+        if (parkingFloor != StopSet.NONE && parkingFloor != this.getFloor()) {
+            this.parkingFloor = parkingFloor;
+            this.isRunning = true;
+            this.column.simulation.schedule(0, this::nextStep);
         }
     }
 
-    /* ******* LOGIC TO MOVE DOWN ******* */
+    /* ******* LOGIC TO MOVE UP ONE FLOOR, THE ELEVATOR ARRIVES AFTER THE TRAVEL TIME ******* */
+    public void moveUp() {
+        int nextFloor = this.getFloor() + 1;
+        this.column.battery.eventSink.carMoved(this, this.getFloor(), nextFloor);
+        this.column.simulation.schedule(this.column.simulation.floorTravelTime, () -> this.arriveAtFloor(nextFloor));
+    }
+
+    /* ******* LOGIC TO MOVE DOWN ONE FLOOR, THE ELEVATOR ARRIVES AFTER THE TRAVEL TIME ******* */
     public void moveDown() {
-        List<Integer> tempArray = new ArrayList<>(this.floorList);
-        for (int i = this.floor; i > tempArray.get(tempArray.size() - 1); i--) {
-            // finding doors by id
-            final int j = i;
-            Optional<Door> currentDoor = this.floorDoorsList.stream().filter(door -> door.id == j).findFirst();
-            if (currentDoor.isPresent() && currentDoor.get().status == DoorStatus.OPENED || this.elevatorDoor.status == DoorStatus.OPENED) {
-                System.out.println("       Doors are open, closing doors before move down");
-                this.closeDoors();
-            }
-            System.out.println("Moving elevator" + column.name + this.id + " <down> from floor " + i + " to floor " + (i - 1));
-            int nextFloor = (i - 1);
-            this.floor = nextFloor;
-            this.updateDisplays(this.floor);
-
-            if (tempArray.contains(nextFloor)) {
-                this.openDoors();
-                this.deleteFloorFromList(nextFloor);
-                this.manageButtonStatusOff(nextFloor);
-            }
-        }
-        if (this.floorList.size() == 0) {
-            this.status = ElevatorStatus.IDLE;
-//            System.out.println("       Elevator" + column.name + this.id + " is now " + this.status);
-        } else {
-            this.status = ElevatorStatus.UP;
-//            System.out.println("       Elevator" + column.name + this.id + " is now going " + this.status);
-        }
+        int nextFloor = this.getFloor() - 1;
+        this.column.battery.eventSink.carMoved(this, this.getFloor(), nextFloor);
+        this.column.simulation.schedule(this.column.simulation.floorTravelTime, () -> this.arriveAtFloor(nextFloor));
     }
 
-    /* ******* LOGIC TO FIND BUTTONS BY ID AND SET BUTTON STATUS OFF ******* */
-    private void manageButtonStatusOff(int floor) {
-        Optional<Button> currentUpButton = this.column.buttonsUpList.stream().filter(button -> button.id == floor).findFirst(); //filter UP button by ID and set status to OFF
-        if (currentUpButton.isPresent()) {
-            currentUpButton.get().status = ButtonStatus.OFF;
-        }
-        Optional<Button> currentDownButton = this.column.buttonsDownList.stream().filter(button -> button.id == floor).findFirst(); //filter DOWN button by ID and set status to OFF
-        if (currentDownButton.isPresent()) {
-            currentDownButton.get().status = ButtonStatus.OFF;
+    /* ******* LOGIC TO UPDATE THE FLOOR WHEN THE ELEVATOR ARRIVES AND CONTINUE ITS ROUTE ******* */
+    private void arriveAtFloor(int nextFloor) {
+        this.setFloor(nextFloor);
+        this.metrics.floorsTravelled.increment();
+        this.updateDisplays(this.getFloor());
+        this.nextStep();
+    }
+
+    /* ******* LOGIC TO FIND BUTTONS BY FLOOR AND SET BUTTON STATUS OFF ******* */
+    public void manageButtonStatusOff(int floor) {
+        Button currentUpButton = this.column.findByFloor(this.column.buttonsUpArray, floor); //find UP button by floor and set status to OFF
+        if (currentUpButton != null) {
+            currentUpButton.status = ButtonStatus.OFF;
         }
-        Optional<Button> currentFloorButton = this.floorButtonsList.stream().filter(button -> button.id == floor).findFirst(); //filter floor button by ID and set status to OFF
-        if (currentFloorButton.isPresent()) {
-            currentFloorButton.get().status = ButtonStatus.OFF;
+        Button currentDownButton = this.column.findByFloor(this.column.buttonsDownArray, floor); //find DOWN button by floor and set status to OFF
+        if (currentDownButton != null) {
+            currentDownButton.status = ButtonStatus.OFF;
         }
+        this.floorButtonsOn.remove(floor); //set the floor button inside the elevator to OFF
+        this.column.clearAssignedElevators(floor);
     }
 
     /* ******* LOGIC TO UPDATE DISPLAYS OF ELEVATOR AND SHOW FLOOR ******* */
     public void updateDisplays(int elevatorFloor) {
-        this.floorDisplaysList.forEach(display -> {
-            display.floor = elevatorFloor;
-        });
+        this.displayFloor = elevatorFloor; //the displays of all the landings show the same floor
 //        System.out.println("Displays show #" + elevatorFloor);
     }
 
-    /* ******* LOGIC TO OPEN DOORS ******* */
+    /* ******* LOGIC TO OPEN DOORS, THEY ARE CLOSED BY THE NEXT STEP OF THE ELEVATOR AFTER THE DWELL TIME ******* */
     public void openDoors() {
-        System.out.println("       Elevator is stopped at floor " + this.floor);
-        System.out.println("       Opening doors...");
-        System.out.println("       Elevator doors are opened");
-        this.elevatorDoor.status = DoorStatus.OPENED;
-        Optional<Door> currentDoor = this.floorDoorsList.stream().filter(door -> door.id == this.floor).findFirst(); //filter floor door by ID and set status to OPENED
-        if (currentDoor.isPresent()) {
-            currentDoor.get().status = DoorStatus.OPENED;
-        }
-
-        try {
-            Thread.sleep(1000); //How many time the door remains opened in MILLISECONDS
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
-        this.closeDoors();
+        this.elevatorDoor.status = DoorStatus.OPENED; //the door of the landing opens with the door of the elevator, see floorDoorStatus
+        this.metrics.doorCycles.increment();
+        this.column.battery.eventSink.doorsOpened(this);
     }
 
-    /* ******* LOGIC TO CLOSE DOORS ******* */
-    public void closeDoors() {
-        this.checkWeight();
-        this.checkObstruction();
+    /* ******* LOGIC TO CLOSE DOORS, RETURNS HOW MANY TIME THE SENSORS MADE THE ELEVATOR WAIT IN MILLISECONDS ******* */
+    public long closeDoors() {
+        long waitingTime = this.checkWeight() + this.checkObstruction();
         if (this.weightSensorStatus == SensorStatus.OFF && this.obstructionSensorStatus == SensorStatus.OFF) { //Security logic
-            System.out.println("       Closing doors...");
-            System.out.println("       Elevator doors are closed");
-            Optional<Door> currentDoor = this.floorDoorsList.stream().filter(door -> door.id == this.floor).findFirst(); //filter floor door by ID and set status to OPENED
-            if (currentDoor.isPresent()) {
-                currentDoor.get().status = DoorStatus.CLOSED;
-            }
             this.elevatorDoor.status = DoorStatus.CLOSED;
+            this.column.battery.eventSink.doorsClosed(this);
         }
+        return waitingTime;
     }
 
     /* ******* LOGIC FOR WEIGHT SENSOR ******* */
-    public void checkWeight() {
+    public long checkWeight() {
+        long waitingTime = 0;
         int maxWeight = 500; //Maximum weight an elevator can carry in KG
-        Random random = new Random();
-        int randomWeight = random.nextInt(maxWeight + 100); //This random simulates the weight from a weight sensor
+        int randomWeight = this.column.sensorSource.readWeight(this); //Weight from the weight sensor
         while (randomWeight > maxWeight) {  //Logic of loading
             this.weightSensorStatus = SensorStatus.ON;  //Detect a full elevator
-            System.out.println("       ! Elevator capacity reached, waiting until the weight is lower before continue...");
+            this.column.battery.eventSink.sensorChecked(this, Sensor.WEIGHT, this.weightSensorStatus);
             randomWeight -= 100; //I'm supposing the random number is 600, I'll subtract 101 so it will be less than 500 (the max weight I proposed) for the second time it runs
+            waitingTime += this.column.simulation.sensorWaitTime;
         }
         this.weightSensorStatus = SensorStatus.OFF;
-        System.out.println("       Elevator capacity is OK");
+        this.column.battery.eventSink.sensorChecked(this, Sensor.WEIGHT, this.weightSensorStatus);
+        return waitingTime;
     }
 
     /* ******* LOGIC FOR OBSTRUCTION SENSOR ******* */
-    public void checkObstruction() {
+    public long checkObstruction() {
+        long waitingTime = 0;
         int probabilityNotBlocked = 70;
-        Random random = new Random();
-        int number = random.nextInt(100); //This random simulates the probability of an obstruction (I supposed 30% of chance something is blocking the door)
+        int number = this.column.sensorSource.readObstruction(this); //Reading of the obstruction sensor (I supposed 30% of chance something is blocking the door)
         while (number > probabilityNotBlocked) {
             this.obstructionSensorStatus = SensorStatus.ON;
-            System.out.println("       ! Elevator door is blocked by something, waiting until door is free before continue...");
+            this.column.battery.eventSink.sensorChecked(this, Sensor.OBSTRUCTION, this.obstructionSensorStatus);
             number -= 30; //I'm supposing the random number is 100, I'll subtract 30 so it will be less than 70 (30% probability), so the second time it runs theres no one blocking the door
+            waitingTime += this.column.simulation.sensorWaitTime;
         }
         this.obstructionSensorStatus = SensorStatus.OFF;
-        System.out.println("       Elevator door is FREE");
+        this.column.battery.eventSink.sensorChecked(this, Sensor.OBSTRUCTION, this.obstructionSensorStatus);
+        return waitingTime;
     }
 
-    /* ******* LOGIC TO ADD A FLOOR TO THE FLOOR LIST ******* */
+    /* ******* LOGIC TO ADD A FLOOR TO THE STOPS OF THE ELEVATOR ******* */
     public void addFloorToFloorList(int floor) {
-        if (!floorList.contains(floor)) {
-            this.floorList.add(floor);
-            Collections.sort(this.floorList);
+        if (this.stopSet.add(floor)) {
+            this.column.battery.eventSink.stopAdded(this, floor);
         }
     }
 
-    /* ******* LOGIC TO DELETE ITEM FROM FLOORS LIST ******* */
+    /* ******* LOGIC TO DELETE A FLOOR FROM THE STOPS OF THE ELEVATOR ******* */
     public void deleteFloorFromList(int stopFloor) {
-        int index = this.floorList.indexOf(stopFloor);
-        if (index > -1) {
-            this.floorList.remove(index);
+        this.stopSet.remove(stopFloor);
+    }
+
+    /* ******* LOGIC TO CANCEL A STOP THE ELEVATOR DOES NOT NEED ANYMORE, WITHOUT OPENING ITS DOORS THERE ******* */
+    public void cancelStop(int floor) {
+        if (this.stopSet.remove(floor)) {
+            this.column.battery.eventSink.stopRemoved(this, floor);
+        }
+        this.floorButtonsOn.remove(floor);
+    }
+
+
+    //----------------- Methods for the mailbox -----------------//
+    /* ******* POST A REQUEST TO THE MAILBOX, IT CAN BE CALLED FROM ANY THREAD ******* */
+    public void post(int requestedFloor, CompletableFuture<Elevator> arrival, boolean isCarCall) {
+        this.mailbox.add(new FloorRequest(requestedFloor, arrival, isCarCall));
+        if (this.isMailboxScheduled.compareAndSet(false, true)) { //only one pass is needed to process all the waiting requests
+            this.column.simulation.submit(this::processMailbox);
+        }
+    }
+
+    /* ******* LOGIC TO PROCESS ALL THE REQUESTS OF THE MAILBOX ON THE SIMULATION THREAD ******* */
+    /* ******* A WRONG REQUEST (A FLOOR THE ELEVATOR CANNOT REACH) FAILS ITS FUTURE, THE OTHER REQUESTS ARE STILL PROCESSED ******* */
+    private void processMailbox() {
+        this.isMailboxScheduled.set(false);
+        FloorRequest request;
+        while ((request = this.mailbox.poll()) != null) {
+            try {
+                if (request.isCarCall) {
+                    this.column.battery.eventSink.floorRequested(this, request.floor);
+                }
+                if (this.getFloor() == request.floor && (!this.isRunning || this.elevatorDoor.status == DoorStatus.OPENED)) { //the elevator is already there
+                    this.manageButtonStatusOff(request.floor);
+                    request.arrival.complete(this);
+                } else {
+                    this.addFloorToFloorList(request.floor); //throws before anything is changed if the floor is not served
+                    this.arrivalsMap.computeIfAbsent(request.floor, floor -> new ArrayList<>()).add(request.arrival);
+                    this.parkingFloor = StopSet.NONE; //a request ends the parking, the elevator goes to its stops
+                    if (this.column.landingFloors.contains(request.floor)) {
+                        this.floorButtonsOn.add(request.floor);
+                    }
+                    this.moveElevator(request.floor);
+                }
+            } catch (RuntimeException e) {
+                request.arrival.completeExceptionally(e);
+            }
+        }
+    }
+
+    /* ******* LOGIC TO TAKE BACK THE ARRIVALS OF A CALL GIVEN TO ANOTHER ELEVATOR, THE STOP IS CANCELED IF NOTHING ELSE WAITS THERE ******* */
+    public void withdrawArrivals(int floor, List<CompletableFuture<Elevator>> arrivals) {
+        List<CompletableFuture<Elevator>> waitingList = this.arrivalsMap.get(floor);
+        if (waitingList == null) {
+            return;
+        }
+        waitingList.removeAll(arrivals);
+        if (waitingList.isEmpty()) {
+            this.arrivalsMap.remove(floor);
+            this.cancelStop(floor);
+        }
+    }
+
+    /* ******* LOGIC TO COMPLETE THE FUTURES WAITING FOR THE ELEVATOR AT THIS FLOOR ******* */
+    private void completeArrivals(int floor) {
+        List<CompletableFuture<Elevator>> arrivals = this.arrivalsMap.remove(floor);
+        if (arrivals != null) {
+            for (CompletableFuture<Elevator> arrival : arrivals) {
+                if (arrival.complete(this)) { //another elevator may have answered first (a press posted just before the call was reassigned)
+                    this.metrics.trips.increment();
+                }
+            }
         }
     }
 
@@ -606,34 +1176,283 @@ class Elevator {
     //----------------- Entry method -----------------//
     /* ******* ENTRY METHOD ******* */
     /* ******* REQUEST FOR A FLOOR BY PRESSING THE FLOOR BUTTON INSIDE THE ELEVATOR ******* */
-    public void requestFloor(int requestedFloor) {
+    /* ******* RETURNS RIGHT AWAY, THE FUTURE IS COMPLETED WHEN THE ELEVATOR OPENS ITS DOORS AT THE REQUESTED FLOOR ******* */
+    public CompletableFuture<Elevator> requestFloor(int requestedFloor) {
 //        System.out.println(" >> Someone inside the elevator" + this.id + " wants to go to floor <" + requestedFloor + "> <<");
-        if (this.floor != requestedFloor) {
-            this.addFloorToFloorList(requestedFloor);
-            this.moveElevator(requestedFloor);
-        }
+        CompletableFuture<Elevator> arrival = new CompletableFuture<>();
+        this.post(requestedFloor, arrival, true);
+        return arrival;
     }
 }
 
-
-//------------------------------------------- DOOR CLASS --------------------------------------------------------------------------
-//---------------------------------------------------------------------------------------------------------------------------------
-class Door {
-    int id;
-    DoorStatus status;
+/* ******* REQUEST WAITING IN THE MAILBOX OF AN ELEVATOR ******* */
+class FloorRequest {
     int floor;
+    CompletableFuture<Elevator> arrival;
+    boolean isCarCall;                     //true for requestFloor (button inside the elevator), false for a hall call
 
-    public Door(int id, DoorStatus doorStatus, int floor) {
-        this.id = id;
-        this.status = doorStatus;
+    public FloorRequest(int floor, CompletableFuture<Elevator> arrival, boolean isCarCall) {
         this.floor = floor;
+        this.arrival = arrival;
+        this.isCarCall = isCarCall;
     }
 }
 
 
-//------------------------------------------- BUTTON CLASS ------------------------------------------------------------------------
+//------------------------------------------- STOP SET CLASS ----------------------------------------------------------------------
 //---------------------------------------------------------------------------------------------------------------------------------
-class Button {
+class StopSet {
+    static final int NONE = Integer.MIN_VALUE; //Returned when there is no stop in the asked direction
+    int lowestFloor;                       //Floor of the bit 0
+    int numberOfFloors;
+    long[] words;                          //One bit per floor, the bit of a floor is at (floor - lowestFloor) from the word at offset
+    int offset;                            //First word of the set, the words of many sets can be packed in the same array
+    int numberOfWords;
+    int size;                              //Number of stops
+    int lowestStop;                        //Kept up to date by add and remove, NONE when there is no stop
+    int highestStop;                       //Kept up to date by add and remove, NONE when there is no stop
+
+    //----------------- Constructor and its attributes -----------------//
+    public StopSet(int lowestFloor, int highestFloor) {
+        this(lowestFloor, highestFloor, new long[wordsFor(lowestFloor, highestFloor)], 0);
+    }
+
+    public StopSet(int lowestFloor, int highestFloor, long[] words, int offset) {
+        this.lowestFloor = lowestFloor;
+        this.numberOfFloors = highestFloor - lowestFloor + 1;
+        this.words = words;
+        this.offset = offset;
+        this.numberOfWords = wordsFor(lowestFloor, highestFloor);
+        this.size = 0;
+        this.lowestStop = NONE;
+        this.highestStop = NONE;
+    }
+
+    /* ******* NUMBER OF long WORDS NEEDED FOR THE FLOORS ******* */
+    public static int wordsFor(int lowestFloor, int highestFloor) {
+        return (highestFloor - lowestFloor + 1 + 63) / 64;
+    }
+
+
+    //----------------- Method toString -----------------//
+    /* ******* GET A STRING REPRESENTATION OF STOP SET OBJECT ******* */
+    @Override
+    public String toString() {
+        return this.toList().toString();
+    }
+
+
+    //----------------- Methods for logic -----------------//
+    /* ******* ADD A STOP, RETURNS false IF THE STOP WAS ALREADY THERE ******* */
+    public boolean add(int floor) {
+        int index = floor - this.lowestFloor;
+        if (index < 0 || index >= this.numberOfFloors) {
+            throw new IllegalArgumentException("Floor " + floor + " is not served, the floors go from " + this.lowestFloor + " to " + (this.lowestFloor + this.numberOfFloors - 1));
+        }
+        long mask = 1L << index; //the shift only uses the 6 lowest bits, so it gives the bit inside the word
+        if ((this.words[this.offset + (index >>> 6)] & mask) != 0) {
+            return false;
+        }
+        this.words[this.offset + (index >>> 6)] |= mask;
+        this.size++;
+        if (this.lowestStop == NONE || floor < this.lowestStop) {
+            this.lowestStop = floor;
+        }
+        if (this.highestStop == NONE || floor > this.highestStop) {
+            this.highestStop = floor;
+        }
+        return true;
+    }
+
+    /* ******* REMOVE A STOP, RETURNS false IF THERE WAS NO STOP AT THIS FLOOR ******* */
+    public boolean remove(int floor) {
+        if (!this.contains(floor)) {
+            return false;
+        }
+        int index = floor - this.lowestFloor;
+        this.words[this.offset + (index >>> 6)] &= ~(1L << index);
+        this.size--;
+        if (floor == this.lowestStop) { //only removing an end of the route needs a scan, from this end
+            this.lowestStop = this.nextAbove(floor);
+        }
+        if (floor == this.highestStop) {
+            this.highestStop = this.nextBelow(floor);
+        }
+        return true;
+    }
+
+    /* ******* CHECK IF THERE IS A STOP AT THIS FLOOR ******* */
+    public boolean contains(int floor) {
+        int index = floor - this.lowestFloor;
+        return index >= 0 && index < this.numberOfFloors && (this.words[this.offset + (index >>> 6)] & (1L << index)) != 0;
+    }
+
+    /* ******* FIND THE FIRST STOP ABOVE THE FLOOR (NEXT STOP GOING UP), RETURNS NONE IF THERE IS NO STOP ABOVE ******* */
+    public int nextAbove(int floor) {
+        int index = Math.max(floor - this.lowestFloor + 1, 0);
+        if (index >= this.numberOfFloors) {
+            return NONE;
+        }
+        int wordIndex = index >>> 6;
+        long word = this.words[this.offset + wordIndex] & (-1L << index); //ignore the floors below
+        while (word == 0) {
+            if (++wordIndex == this.numberOfWords) {
+                return NONE;
+            }
+            word = this.words[this.offset + wordIndex];
+        }
+        return this.lowestFloor + wordIndex * 64 + Long.numberOfTrailingZeros(word);
+    }
+
+    /* ******* FIND THE FIRST STOP BELOW THE FLOOR (NEXT STOP GOING DOWN), RETURNS NONE IF THERE IS NO STOP BELOW ******* */
+    public int nextBelow(int floor) {
+        int index = Math.min(floor - this.lowestFloor - 1, this.numberOfFloors - 1);
+        if (index < 0) {
+            return NONE;
+        }
+        int wordIndex = index >>> 6;
+        long word = this.words[this.offset + wordIndex] & (-1L >>> (63 - (index & 63))); //ignore the floors above
+        while (word == 0) {
+            if (--wordIndex < 0) {
+                return NONE;
+            }
+            word = this.words[this.offset + wordIndex];
+        }
+        return this.lowestFloor + wordIndex * 64 + 63 - Long.numberOfLeadingZeros(word);
+    }
+
+    /* ******* GET THE LOWEST STOP, RETURNS NONE IF THERE IS NO STOP ******* */
+    public int lowest() {
+        return this.lowestStop;
+    }
+
+    /* ******* GET THE HIGHEST STOP, RETURNS NONE IF THERE IS NO STOP ******* */
+    public int highest() {
+        return this.highestStop;
+    }
+
+    /* ******* COUNT THE STOPS STRICTLY BETWEEN TWO FLOORS, ONE Long.bitCount PER WORD INSTEAD OF ONE STEP PER STOP ******* */
+    public int countBetween(int fromFloor, int toFloor) {
+        int lowIndex = Math.max(Math.min(fromFloor, toFloor) - this.lowestFloor + 1, 0);
+        int highIndex = Math.min(Math.max(fromFloor, toFloor) - this.lowestFloor - 1, this.numberOfFloors - 1);
+        if (lowIndex > highIndex) {
+            return 0;
+        }
+        int lowWord = lowIndex >>> 6;
+        int highWord = highIndex >>> 6;
+        long lowMask = -1L << lowIndex;            //the floors from lowIndex in the first word
+        long highMask = -1L >>> (63 - (highIndex & 63)); //the floors up to highIndex in the last word
+        if (lowWord == highWord) {
+            return Long.bitCount(this.words[this.offset + lowWord] & lowMask & highMask);
+        }
+        int stopsCount = Long.bitCount(this.words[this.offset + lowWord] & lowMask) + Long.bitCount(this.words[this.offset + highWord] & highMask);
+        for (int i = lowWord + 1; i < highWord; i++) {
+            stopsCount += Long.bitCount(this.words[this.offset + i]);
+        }
+        return stopsCount;
+    }
+
+    /* ******* GET THE STOPS AS A SORTED LIST ******* */
+    public List<Integer> toList() {
+        List<Integer> stopsList = new ArrayList<>(this.size);
+        for (int floor = this.lowest(); floor != NONE; floor = this.nextAbove(floor)) {
+            stopsList.add(floor);
+        }
+        return stopsList;
+    }
+
+
+    //----------------- Methods for the state file -----------------//
+    /* ******* WRITE THE WORDS OF THE SET IN THE BUFFER ******* */
+    public void writeTo(ByteBuffer buffer) {
+        for (int i = 0; i < this.numberOfWords; i++) {
+            buffer.putLong(this.words[this.offset + i]);
+        }
+    }
+
+    /* ******* READ THE WORDS OF THE SET FROM THE BUFFER AND COUNT ITS STOPS AND FIND ITS ENDS AGAIN ******* */
+    public void readFrom(ByteBuffer buffer) {
+        this.size = 0;
+        for (int i = 0; i < this.numberOfWords; i++) {
+            this.words[this.offset + i] = buffer.getLong();
+            this.size += Long.bitCount(this.words[this.offset + i]);
+        }
+        this.lowestStop = this.nextAbove(this.lowestFloor - 1);
+        this.highestStop = this.nextBelow(this.lowestFloor + this.numberOfFloors);
+    }
+}
+
+
+//------------------------------------------- FLEET STATE CLASS -------------------------------------------------------------------
+//---------------------------------------------------------------------------------------------------------------------------------
+/* ******* FLOORS, STATUSES AND STOPS OF ALL THE ELEVATORS OF A COLUMN IN CONTIGUOUS ARRAYS OF PRIMITIVES ******* */
+/* ******* THE ELEVATOR AT fleetIndex i IS elevatorsList.get(i), SO THE DISPATCH SCANS THE ARRAYS WITHOUT TOUCHING THE ELEVATORS ******* */
+class FleetState {
+    static final ElevatorStatus[] STATUSES = ElevatorStatus.values();
+    int size;                              //Number of elevators added
+    int lowestFloor;
+    int highestFloor;
+    int wordsPerElevator;                  //Words of the stop bitmap of each elevator
+    int[] floorsArray;                     //Floor of each elevator
+    byte[] statusesArray;                  //ElevatorStatus.ordinal() of each elevator
+    long[] stopsWords;                     //Stop bitmaps of the elevators one after the other, wordsPerElevator words each
+
+    //----------------- Constructor and its attributes -----------------//
+    public FleetState(int capacity, int lowestFloor, int highestFloor) {
+        this.size = 0;
+        this.lowestFloor = lowestFloor;
+        this.highestFloor = highestFloor;
+        this.wordsPerElevator = StopSet.wordsFor(lowestFloor, highestFloor);
+        this.floorsArray = new int[capacity];
+        this.statusesArray = new byte[capacity];
+        this.stopsWords = new long[capacity * this.wordsPerElevator];
+    }
+
+
+    //----------------- Methods for logic -----------------//
+    /* ******* ADD AN ELEVATOR, RETURNS ITS INDEX IN THE ARRAYS ******* */
+    public int add(int floor, ElevatorStatus status) {
+        if (this.size == this.floorsArray.length) {
+            throw new IllegalStateException("The fleet is full, it has room for " + this.floorsArray.length + " elevators");
+        }
+        this.floorsArray[this.size] = floor;
+        this.statusesArray[this.size] = (byte) status.ordinal();
+        return this.size++;
+    }
+
+    /* ******* CREATE THE STOP SET OF AN ELEVATOR, ITS BITS ARE IN stopsWords ******* */
+    public StopSet createStopSet(int index) {
+        return new StopSet(this.lowestFloor, this.highestFloor, this.stopsWords, index * this.wordsPerElevator);
+    }
+
+    public ElevatorStatus getStatus(int index) {
+        return STATUSES[this.statusesArray[index]];
+    }
+
+    public void setStatus(int index, ElevatorStatus status) {
+        this.statusesArray[index] = (byte) status.ordinal();
+    }
+}
+
+
+//------------------------------------------- DOOR CLASS --------------------------------------------------------------------------
+//---------------------------------------------------------------------------------------------------------------------------------
+class Door {
+    int id;
+    DoorStatus status;
+    int floor;
+
+    public Door(int id, DoorStatus doorStatus, int floor) {
+        this.id = id;
+        this.status = doorStatus;
+        this.floor = floor;
+    }
+}
+
+
+//------------------------------------------- BUTTON CLASS ------------------------------------------------------------------------
+//---------------------------------------------------------------------------------------------------------------------------------
+class Button {
     int id;
     ButtonStatus status;
     int floor;
@@ -653,10 +1472,2232 @@ class Display {
     DisplayStatus status;
     int floor;
 
-    public Display(int id, DisplayStatus displayStatus, int floor) {
-        this.id = id;
-        this.status = displayStatus;
-        this.floor = floor;
+    public Display(int id, DisplayStatus displayStatus, int floor) {
+        this.id = id;
+        this.status = displayStatus;
+        this.floor = floor;
+    }
+}
+
+
+//------------------------------------------- SNAPSHOTS ---------------------------------------------------------------------------
+//---------------------------------------------------------------------------------------------------------------------------------
+/* ******* IMMUTABLE COPY OF THE STATE OF AN ELEVATOR, SAFE TO READ FROM ANY THREAD ******* */
+class ElevatorSnapshot {
+    final int id;
+    final int floor;
+    final ElevatorStatus status;
+    final DoorStatus doorStatus;
+    final List<Integer> stopsList;
+    final int pendingArrivals;             //Number of futures waiting for this elevator
+
+    public ElevatorSnapshot(Elevator elevator) {
+        this.id = elevator.id;
+        this.floor = elevator.getFloor();
+        this.status = elevator.getStatus();
+        this.doorStatus = elevator.elevatorDoor.status;
+        this.stopsList = Collections.unmodifiableList(elevator.stopSet.toList());
+        int arrivals = 0;
+        for (List<CompletableFuture<Elevator>> futures : elevator.arrivalsMap.values()) {
+            arrivals += futures.size();
+        }
+        this.pendingArrivals = arrivals;
+    }
+
+    @Override
+    public String toString() {
+        return "elevator" + this.id + " | Floor: " + this.floor + " | Status: " + this.status + " | Stops: " + this.stopsList;
+    }
+}
+
+/* ******* IMMUTABLE COPY OF THE STATE OF A COLUMN, SAFE TO READ FROM ANY THREAD ******* */
+class ColumnSnapshot {
+    final char name;
+    final long time;
+    final List<ElevatorSnapshot> elevatorsList;
+    final List<Integer> buttonsUpOn;       //Floors where the UP button is ON
+    final List<Integer> buttonsDownOn;     //Floors where the DOWN button is ON
+
+    public ColumnSnapshot(Column column) {
+        this.name = column.name;
+        this.time = column.simulation.currentTime;
+        List<ElevatorSnapshot> elevators = new ArrayList<>();
+        column.elevatorsList.forEach(elevator -> elevators.add(new ElevatorSnapshot(elevator)));
+        this.elevatorsList = Collections.unmodifiableList(elevators);
+        this.buttonsUpOn = Collections.unmodifiableList(column.buttonsUpList.stream().filter(button -> button.status == ButtonStatus.ON).map(button -> button.floor).collect(Collectors.toList()));
+        this.buttonsDownOn = Collections.unmodifiableList(column.buttonsDownList.stream().filter(button -> button.status == ButtonStatus.ON).map(button -> button.floor).collect(Collectors.toList()));
+    }
+
+    @Override
+    public String toString() {
+        return "column" + this.name + " | Time: " + this.time + "ms | Buttons UP on: " + this.buttonsUpOn + " | Buttons DOWN on: " + this.buttonsDownOn;
+    }
+}
+
+
+//------------------------------------------- EVENT SINKS -------------------------------------------------------------------------
+//---------------------------------------------------------------------------------------------------------------------------------
+/* ******* RECEIVES THE EVENTS OF THE ELEVATORS, CALLED BY THE THREAD OF THE COLUMN OF THE ELEVATOR ******* */
+interface EventSink {
+    void hallCallRequested(Column column, int requestedFloor, Direction direction);
+    void floorRequested(Elevator elevator, int requestedFloor);
+    void stopAdded(Elevator elevator, int floor);
+    void stopRemoved(Elevator elevator, int floor);
+    void callAssigned(Elevator elevator, int requestedFloor);
+    void carMoved(Elevator elevator, int fromFloor, int toFloor);
+    void doorsOpened(Elevator elevator);
+    void doorsClosed(Elevator elevator);
+    void sensorChecked(Elevator elevator, Sensor sensor, SensorStatus sensorStatus);
+}
+
+/* ******* IGNORES ALL THE EVENTS, FOR LARGE SIMULATIONS ******* */
+class NoOpEventSink implements EventSink {
+    public void hallCallRequested(Column column, int requestedFloor, Direction direction) {}
+    public void floorRequested(Elevator elevator, int requestedFloor) {}
+    public void stopAdded(Elevator elevator, int floor) {}
+    public void stopRemoved(Elevator elevator, int floor) {}
+    public void callAssigned(Elevator elevator, int requestedFloor) {}
+    public void carMoved(Elevator elevator, int fromFloor, int toFloor) {}
+    public void doorsOpened(Elevator elevator) {}
+    public void doorsClosed(Elevator elevator) {}
+    public void sensorChecked(Elevator elevator, Sensor sensor, SensorStatus sensorStatus) {}
+}
+
+/* ******* PRINTS THE EVENTS TO THE CONSOLE AS A STORY, FOR THE SCENARIOS ******* */
+class ConsoleEventSink implements EventSink {
+    public void hallCallRequested(Column column, int requestedFloor, Direction direction) {} //the scenarios print the requests themselves
+
+    public void floorRequested(Elevator elevator, int requestedFloor) {}
+
+    public void stopAdded(Elevator elevator, int floor) {}
+
+    public void stopRemoved(Elevator elevator, int floor) {}
+
+    public void callAssigned(Elevator elevator, int requestedFloor) {
+        System.out.println();
+        System.out.println("-----------------------------------------------------");
+        System.out.println("   > > >> >>> ELEVATOR " + elevator.column.name + elevator.id + " WAS CALLED <<< << < <");
+        System.out.println("-----------------------------------------------------");
+    }
+
+    public void carMoved(Elevator elevator, int fromFloor, int toFloor) {
+        System.out.println("Moving elevator" + elevator.column.name + elevator.id + (toFloor > fromFloor ? " <up>" : " <down>") + " from floor " + fromFloor + " to floor " + toFloor);
+    }
+
+    public void doorsOpened(Elevator elevator) {
+        System.out.println("       Elevator is stopped at floor " + elevator.getFloor());
+        System.out.println("       Opening doors...");
+        System.out.println("       Elevator doors are opened");
+    }
+
+    public void doorsClosed(Elevator elevator) {
+        System.out.println("       Closing doors...");
+        System.out.println("       Elevator doors are closed");
+    }
+
+    public void sensorChecked(Elevator elevator, Sensor sensor, SensorStatus sensorStatus) {
+        if (sensor == Sensor.WEIGHT) {
+            System.out.println(sensorStatus == SensorStatus.ON ? "       ! Elevator capacity reached, waiting until the weight is lower before continue..." : "       Elevator capacity is OK");
+        } else {
+            System.out.println(sensorStatus == SensorStatus.ON ? "       ! Elevator door is blocked by something, waiting until door is free before continue..." : "       Elevator door is FREE");
+        }
+    }
+}
+
+/* ******* COPIES THE EVENTS IN A LOCK-FREE RING BUFFER, A BACKGROUND THREAD FORMATS AND WRITES THEM ******* */
+/* ******* THE ELEVATORS NEVER WAIT FOR THE OUTPUT, EXCEPT IF THE BUFFER IS FULL (THEN THEY SPIN UNTIL A SLOT IS FREE) ******* */
+class RingBufferEventSink implements EventSink, AutoCloseable {
+    static final int RECORD_SIZE = 6;      //type, time, column, elevator, value1, value2
+    int capacity;                          //Number of events the buffer can hold, a power of 2
+    long[] recordsArray;                   //Slot i uses recordsArray[i * RECORD_SIZE] to recordsArray[i * RECORD_SIZE + 5]
+    AtomicLongArray publishedArray;        //Sequence of the event published in each slot, written after the record (publication)
+    AtomicLong claimSequence;              //Next sequence given to a producer
+    volatile long consumedSequence;        //Every event before this sequence was written, its slot can be reused
+    volatile boolean isClosed;
+    PrintStream output;
+    Thread writerThread;
+
+    //----------------- Constructor and its attributes -----------------//
+    public RingBufferEventSink(int capacity, OutputStream outputStream) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("The capacity must be a power of 2: " + capacity);
+        }
+        this.capacity = capacity;
+        this.recordsArray = new long[capacity * RECORD_SIZE];
+        this.publishedArray = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            this.publishedArray.set(i, -1);
+        }
+        this.claimSequence = new AtomicLong();
+        this.output = new PrintStream(new BufferedOutputStream(outputStream, 1 << 16), false);
+        this.writerThread = new Thread(this::runWriter, "event-sink-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+
+    //----------------- Methods for the events -----------------//
+    public void hallCallRequested(Column column, int requestedFloor, Direction direction) {
+        this.publish(ElevatorEventType.HALL_CALL_REQUESTED, column, 0, requestedFloor, direction.ordinal());
+    }
+
+    public void floorRequested(Elevator elevator, int requestedFloor) {
+        this.publish(ElevatorEventType.FLOOR_REQUESTED, elevator, requestedFloor, 0);
+    }
+
+    public void stopAdded(Elevator elevator, int floor) {
+        this.publish(ElevatorEventType.STOP_ADDED, elevator, floor, 0);
+    }
+
+    public void stopRemoved(Elevator elevator, int floor) {
+        this.publish(ElevatorEventType.STOP_REMOVED, elevator, floor, 0);
+    }
+
+    public void callAssigned(Elevator elevator, int requestedFloor) {
+        this.publish(ElevatorEventType.CALL_ASSIGNED, elevator, requestedFloor, 0);
+    }
+
+    public void carMoved(Elevator elevator, int fromFloor, int toFloor) {
+        this.publish(ElevatorEventType.CAR_MOVED, elevator, fromFloor, toFloor);
+    }
+
+    public void doorsOpened(Elevator elevator) {
+        this.publish(ElevatorEventType.DOORS_OPENED, elevator, elevator.getFloor(), 0);
+    }
+
+    public void doorsClosed(Elevator elevator) {
+        this.publish(ElevatorEventType.DOORS_CLOSED, elevator, elevator.getFloor(), 0);
+    }
+
+    public void sensorChecked(Elevator elevator, Sensor sensor, SensorStatus sensorStatus) {
+        this.publish(ElevatorEventType.SENSOR_CHECKED, elevator, sensor.ordinal(), sensorStatus.ordinal());
+    }
+
+
+    //----------------- Methods for logic -----------------//
+    /* ******* CLAIM A SLOT, COPY THE EVENT IN IT AND PUBLISH IT, SAFE FROM MANY THREADS WITHOUT LOCKS ******* */
+    private void publish(ElevatorEventType type, Elevator elevator, long value1, long value2) {
+        this.publish(type, elevator.column, elevator.id, value1, value2);
+    }
+
+    private void publish(ElevatorEventType type, Column column, int elevatorId, long value1, long value2) {
+        long sequence = this.claimSequence.getAndIncrement();
+        while (sequence - this.consumedSequence >= this.capacity) { //the buffer is full, wait for the writer to free this slot
+            Thread.onSpinWait();
+        }
+        int slot = (int) (sequence & (this.capacity - 1));
+        int index = slot * RECORD_SIZE;
+        this.recordsArray[index] = type.ordinal();
+        this.recordsArray[index + 1] = column.simulation.currentTime;
+        this.recordsArray[index + 2] = column.name;
+        this.recordsArray[index + 3] = elevatorId;
+        this.recordsArray[index + 4] = value1;
+        this.recordsArray[index + 5] = value2;
+        this.publishedArray.set(slot, sequence); //volatile write: the record is visible to the writer before the sequence
+    }
+
+    /* ******* LOGIC OF THE WRITER THREAD: WRITE THE EVENTS IN ORDER, FLUSH WHEN THERE IS NOTHING LEFT TO WRITE ******* */
+    private void runWriter() {
+        long sequence = 0;
+        while (true) {
+            int slot = (int) (sequence & (this.capacity - 1));
+            if (this.publishedArray.get(slot) == sequence) {
+                this.writeRecord(slot * RECORD_SIZE);
+                sequence++;
+                this.consumedSequence = sequence;
+            } else if (this.isClosed && sequence == this.claimSequence.get()) {
+                this.output.flush();
+                return;
+            } else {
+                this.output.flush();
+                LockSupport.parkNanos(100_000);
+            }
+        }
+    }
+
+    /* ******* FORMAT ONE RECORD AS A LINE: time column+elevator EVENT values ******* */
+    private void writeRecord(int index) {
+        ElevatorEventType type = ElevatorEventType.values()[(int) this.recordsArray[index]];
+        StringBuilder line = new StringBuilder(48);
+        line.append(this.recordsArray[index + 1]).append("ms elevator").append((char) this.recordsArray[index + 2]).append(this.recordsArray[index + 3]).append(' ').append(type);
+        if (type == ElevatorEventType.CAR_MOVED) {
+            line.append(' ').append(this.recordsArray[index + 4]).append(" -> ").append(this.recordsArray[index + 5]);
+        } else if (type == ElevatorEventType.SENSOR_CHECKED) {
+            line.append(' ').append(Sensor.values()[(int) this.recordsArray[index + 4]]).append(' ').append(SensorStatus.values()[(int) this.recordsArray[index + 5]]);
+        } else if (type == ElevatorEventType.HALL_CALL_REQUESTED) {
+            line.append(" floor ").append(this.recordsArray[index + 4]).append(' ').append(Direction.values()[(int) this.recordsArray[index + 5]]);
+        } else {
+            line.append(" floor ").append(this.recordsArray[index + 4]);
+        }
+        this.output.println(line);
+    }
+
+    /* ******* WRITE THE EVENTS LEFT IN THE BUFFER AND STOP THE WRITER THREAD ******* */
+    @Override
+    public void close() {
+        this.isClosed = true;
+        try {
+            this.writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
+
+
+//------------------------------------------- METRICS -----------------------------------------------------------------------------
+//---------------------------------------------------------------------------------------------------------------------------------
+/* ******* COUNTERS OF AN ELEVATOR, RECORDED BY THE THREAD OF ITS COLUMN AND READ BY ANY THREAD ******* */
+class ElevatorMetrics {
+    LongAdder trips;                       //Requests served: hall calls and floor requests
+    LongAdder floorsTravelled;
+    LongAdder doorCycles;
+    LongAdder[] timeInStatusArray;         //Time spent in each ElevatorStatus in MILLISECONDS, indexed by status.ordinal()
+    volatile ElevatorStatus status;        //Status counted since statusTime
+    volatile long statusTime;
+
+    //----------------- Constructor and its attributes -----------------//
+    public ElevatorMetrics(ElevatorStatus status) {
+        this.trips = new LongAdder();
+        this.floorsTravelled = new LongAdder();
+        this.doorCycles = new LongAdder();
+        this.timeInStatusArray = new LongAdder[ElevatorStatus.values().length];
+        for (int i = 0; i < this.timeInStatusArray.length; i++) {
+            this.timeInStatusArray[i] = new LongAdder();
+        }
+        this.status = status;
+    }
+
+
+    //----------------- Methods for logic -----------------//
+    /* ******* COUNT THE TIME SPENT IN THE PREVIOUS STATUS AND START COUNTING THE NEW ONE ******* */
+    public void statusChanged(ElevatorStatus status, long time) {
+        this.timeInStatusArray[this.status.ordinal()].add(time - this.statusTime);
+        this.statusTime = time;
+        this.status = status;
+    }
+
+    /* ******* GET THE VALUES OF THE COUNTERS, THE TIME OF THE CURRENT STATUS IS COUNTED UNTIL THE GIVEN TIME ******* */
+    public Map<String, Long> snapshot(long time) {
+        Map<String, Long> valuesMap = new LinkedHashMap<>();
+        valuesMap.put("Trips", this.trips.sum());
+        valuesMap.put("FloorsTravelled", this.floorsTravelled.sum());
+        valuesMap.put("DoorCycles", this.doorCycles.sum());
+        ElevatorStatus currentStatus = this.status;
+        long currentStatusTime = Math.max(0, time - this.statusTime);
+        for (ElevatorStatus status : ElevatorStatus.values()) {
+            long timeInStatus = this.timeInStatusArray[status.ordinal()].sum() + (status == currentStatus ? currentStatusTime : 0);
+            valuesMap.put("TimeIn" + status + "Millis", timeInStatus);
+        }
+        return valuesMap;
+    }
+}
+
+/* ******* COUNTERS AND HISTOGRAMS OF A COLUMN, RECORDED BY THE THREAD OF THE COLUMN AND READ BY ANY THREAD ******* */
+class ColumnMetrics {
+    LongAdder hallCalls;
+    LongAdder coalescedCalls;              //Hall calls joining the call already ON for the same floor and direction
+    LongAdder reassignedCalls;             //Hall calls given to a better elevator after waiting too long, see PendingCallRegistry
+    LatencyHistogram waitHistogram;        //From the hall call to the doors opening at the floor, in MILLISECONDS (buckets of 1s up to 1h)
+    LatencyHistogram decisionHistogram;    //Time taken by findElevator, in NANOSECONDS (buckets of 100ns up to 100us)
+
+    //----------------- Constructor and its attributes -----------------//
+    public ColumnMetrics() {
+        this.hallCalls = new LongAdder();
+        this.coalescedCalls = new LongAdder();
+        this.reassignedCalls = new LongAdder();
+        this.waitHistogram = new LatencyHistogram(1000, 3600);
+        this.decisionHistogram = new LatencyHistogram(100, 1000);
+    }
+
+
+    //----------------- Methods for logic -----------------//
+    public Map<String, Long> snapshot() {
+        Map<String, Long> valuesMap = new LinkedHashMap<>();
+        valuesMap.put("HallCalls", this.hallCalls.sum());
+        valuesMap.put("CoalescedCalls", this.coalescedCalls.sum());
+        valuesMap.put("ReassignedCalls", this.reassignedCalls.sum());
+        valuesMap.put("WaitP50Millis", this.waitHistogram.percentile(50));
+        valuesMap.put("WaitP95Millis", this.waitHistogram.percentile(95));
+        valuesMap.put("WaitP99Millis", this.waitHistogram.percentile(99));
+        valuesMap.put("WaitMaxMillis", this.waitHistogram.max());
+        valuesMap.put("DecisionP50Nanos", this.decisionHistogram.percentile(50));
+        valuesMap.put("DecisionP99Nanos", this.decisionHistogram.percentile(99));
+        valuesMap.put("DecisionMaxNanos", this.decisionHistogram.max());
+        return valuesMap;
+    }
+}
+
+/* ******* METRICS OF ALL THE COLUMNS AND ELEVATORS OF A BATTERY AT A GIVEN TIME, KEYED BY "columnA" AND "elevatorA1" ******* */
+class MetricsSnapshot {
+    final long time;                       //System.currentTimeMillis() when the snapshot was taken
+    final Map<String, Map<String, Long>> metricsMap;
+
+    public MetricsSnapshot(Battery battery) {
+        this.time = System.currentTimeMillis();
+        Map<String, Map<String, Long>> metrics = new LinkedHashMap<>();
+        for (Column column : battery.columnsList) {
+            metrics.put("column" + column.name, Collections.unmodifiableMap(column.metrics.snapshot()));
+            long simulationTime = column.simulation.currentTime;
+            for (Elevator elevator : column.elevatorsList) {
+                metrics.put("elevator" + column.name + elevator.id, Collections.unmodifiableMap(elevator.metrics.snapshot(simulationTime)));
+            }
+        }
+        this.metricsMap = Collections.unmodifiableMap(metrics);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        this.metricsMap.forEach((name, values) -> builder.append(name).append(" | ").append(values).append(System.lineSeparator()));
+        return builder.toString();
+    }
+}
+
+/* ******* PASSES A METRICS SNAPSHOT OF THE BATTERY TO THE CONSUMER AT A FIXED PERIOD, ON A BACKGROUND THREAD ******* */
+class MetricsReporter implements AutoCloseable {
+    ScheduledExecutorService executor;
+
+    public MetricsReporter(Battery battery, long period, TimeUnit unit, Consumer<MetricsSnapshot> consumer) {
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "battery" + battery.id + "-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.scheduleAtFixedRate(() -> consumer.accept(battery.takeMetricsSnapshot()), period, period, unit);
+    }
+
+    @Override
+    public void close() {
+        this.executor.shutdown();
+    }
+}
+
+/* ******* JMX BEAN SHOWING THE VALUES OF A METRICS SNAPSHOT AS READ-ONLY long ATTRIBUTES ******* */
+class MetricsMBean implements DynamicMBean {
+    String description;
+    Supplier<Map<String, Long>> metricsSupplier;
+
+    public MetricsMBean(String description, Supplier<Map<String, Long>> metricsSupplier) {
+        this.description = description;
+        this.metricsSupplier = metricsSupplier;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Long value = this.metricsSupplier.get().get(attribute);
+        if (value == null) {
+            throw new AttributeNotFoundException(attribute);
+        }
+        return value;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Long> valuesMap = this.metricsSupplier.get();
+        AttributeList attributeList = new AttributeList();
+        for (String attribute : attributes) {
+            if (valuesMap.containsKey(attribute)) {
+                attributeList.add(new Attribute(attribute, valuesMap.get(attribute)));
+            }
+        }
+        return attributeList;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("The metrics are read-only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributesList = new ArrayList<>();
+        this.metricsSupplier.get().keySet().forEach(name -> attributesList.add(new MBeanAttributeInfo(name, "long", name, true, false, false)));
+        return new MBeanInfo(this.getClass().getName(), this.description, attributesList.toArray(new MBeanAttributeInfo[0]), null, null, null);
+    }
+}
+
+/* ******* HISTOGRAM OF DURATIONS WITH FIXED WIDTH BUCKETS, BY DEFAULT IN MILLISECONDS WITH BUCKETS OF 100 MILLISECONDS UP TO ONE HOUR ******* */
+/* ******* RECORDED BY ONE THREAD AND READ BY ANY THREAD (REPORTER, MBEAN): THE COUNTERS ARE ATOMIC, A READER SEES ALL THE RECORDS ******* */
+/* ******* DONE BEFORE IT READS, AND THE PERCENTILES ARE COMPUTED FROM ONE READING OF THE BUCKETS ******* */
+class LatencyHistogram {
+    long bucketWidth;
+    AtomicLongArray countsArray;           //The last bucket also counts the durations longer than the histogram
+    LongAdder count;
+    LongAdder sum;
+    AtomicLong max;                        //Updated before the bucket, a reader seeing a record in a bucket sees its duration in max
+
+    //----------------- Constructor and its attributes -----------------//
+    public LatencyHistogram() {
+        this(100, 36_000);
+    }
+
+    public LatencyHistogram(long bucketWidth, int numberOfBuckets) {
+        this.bucketWidth = bucketWidth;
+        this.countsArray = new AtomicLongArray(numberOfBuckets);
+        this.count = new LongAdder();
+        this.sum = new LongAdder();
+        this.max = new AtomicLong();
+    }
+
+
+    //----------------- Methods for logic -----------------//
+    public void record(long duration) {
+        this.max.accumulateAndGet(duration, Math::max);
+        this.countsArray.incrementAndGet((int) Math.min(duration / this.bucketWidth, this.countsArray.length() - 1));
+        this.sum.add(duration);
+        this.count.increment();
+    }
+
+    /* ******* LOGIC TO FIND THE DURATION UNDER WHICH THE PERCENTILE OF THE RECORDED DURATIONS ARE (UPPER BOUND OF ITS BUCKET) ******* */
+    public long percentile(double percentile) {
+        long[] counts = new long[this.countsArray.length()]; //the rank is taken from the same counts as the buckets
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = this.countsArray.get(i);
+            total += counts[i];
+        }
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank && seen > 0) {
+                return Math.min((i + 1) * this.bucketWidth, this.max.get());
+            }
+        }
+        return 0;
+    }
+
+    public long mean() {
+        long count = this.count.sum();
+        return count == 0 ? 0 : this.sum.sum() / count;
+    }
+
+    public long count() {
+        return this.count.sum();
+    }
+
+    public long max() {
+        return this.max.get();
+    }
+
+    /* ******* ADD THE DURATIONS RECORDED BY ANOTHER HISTOGRAM OF THE SAME BUCKETS ******* */
+    public void merge(LatencyHistogram other) {
+        this.max.accumulateAndGet(other.max.get(), Math::max);
+        for (int i = 0; i < this.countsArray.length(); i++) {
+            this.countsArray.addAndGet(i, other.countsArray.get(i));
+        }
+        this.sum.add(other.sum.sum());
+        this.count.add(other.count.sum());
+    }
+}
+
+
+//------------------------------------------- SENSOR SOURCES ----------------------------------------------------------------------
+//---------------------------------------------------------------------------------------------------------------------------------
+/* ******* GIVES THE READINGS OF THE SENSORS OF THE ELEVATORS, CALLED BY THE THREAD OF THE COLUMN OF THE ELEVATOR ******* */
+interface SensorSource {
+    int readWeight(Elevator elevator);     //Weight in the elevator in KG, above 500 the elevator is full
+    int readObstruction(Elevator elevator); //From 0 to 99, above 70 something is blocking the door
+}
+
+/* ******* SIMULATED SENSORS, EACH COLUMN HAS ITS OWN GENERATOR SO THE SAME SEED GIVES THE SAME RUN WHATEVER THE THREADS DO ******* */
+class RandomSensorSource implements SensorSource {
+    static final int WEIGHT_BOUND = 600;   //Up to 100KG over the maximum weight of an elevator
+    static final int OBSTRUCTION_BOUND = 100;
+    SplittableRandom random;
+
+    public RandomSensorSource(SplittableRandom random) {
+        this.random = random;
+    }
+
+    public int readWeight(Elevator elevator) {
+        return this.random.nextInt(WEIGHT_BOUND);
+    }
+
+    public int readObstruction(Elevator elevator) {
+        return this.random.nextInt(OBSTRUCTION_BOUND);
+    }
+}
+
+/* ******* REPLAYS SENSOR TRACES, ONE READING PER LINE: <column><elevator> <WEIGHT|OBSTRUCTION> <value>, FOR EXAMPLE: B3 WEIGHT 540 ******* */
+/* ******* THE READINGS OF EACH SENSOR ARE GIVEN IN THE ORDER OF THE FILE, AN EMPTY CAR AND A FREE DOOR WHEN THE TRACE IS OVER ******* */
+class TraceSensorSource implements SensorSource {
+    Map<String, Queue<Integer>> readingsMap; //Readings of each sensor, the queue of a sensor is only used by the thread of its column
+
+    public TraceSensorSource(Path path) throws IOException {
+        this.readingsMap = new HashMap<>();
+        for (String line : Files.readAllLines(path)) {
+            String[] fields = line.trim().split("\\s+");
+            if (fields.length == 3 && !line.startsWith("#")) {
+                Sensor sensor = Sensor.valueOf(fields[1]);
+                this.readingsMap.computeIfAbsent(fields[0] + " " + sensor, key -> new ArrayDeque<>()).add(Integer.parseInt(fields[2]));
+            }
+        }
+    }
+
+    public int readWeight(Elevator elevator) {
+        return this.nextReading(elevator, Sensor.WEIGHT);
+    }
+
+    public int readObstruction(Elevator elevator) {
+        return this.nextReading(elevator, Sensor.OBSTRUCTION);
+    }
+
+    private int nextReading(Elevator elevator, Sensor sensor) {
+        Queue<Integer> readings = this.readingsMap.get("" + elevator.column.name + elevator.id + " " + sensor);
+        Integer reading = readings == null ? null : readings.poll();
+        return reading == null ? 0 : reading;
+    }
+}
+
+/* ******* WRITES THE READINGS OF ANOTHER SOURCE AS A TRACE, THE TRACE CAN BE REPLAYED WITH THE TraceSensorSource ******* */
+class RecordingSensorSource implements SensorSource, AutoCloseable {
+    SensorSource sensorSource;
+    PrintWriter writer;
+
+    public RecordingSensorSource(SensorSource sensorSource, Path path) throws IOException {
+        this.sensorSource = sensorSource;
+        this.writer = new PrintWriter(Files.newBufferedWriter(path));
+    }
+
+    public int readWeight(Elevator elevator) {
+        return this.record(elevator, Sensor.WEIGHT, this.sensorSource.readWeight(elevator));
+    }
+
+    public int readObstruction(Elevator elevator) {
+        return this.record(elevator, Sensor.OBSTRUCTION, this.sensorSource.readObstruction(elevator));
+    }
+
+    private synchronized int record(Elevator elevator, Sensor sensor, int reading) { //the columns read their sensors on different threads
+        this.writer.println("" + elevator.column.name + elevator.id + " " + sensor + " " + reading);
+        return reading;
+    }
+
+    @Override
+    public synchronized void close() {
+        this.writer.close();
+    }
+}
+
+/* ******* SENSORS OF A REAL ELEVATOR, THE DRIVER IS NOT CONNECTED YET SO IT REPORTS AN EMPTY CAR AND A FREE DOOR ******* */
+class HardwareSensorSource implements SensorSource {
+    public int readWeight(Elevator elevator) {
+        return 0;
+    }
+
+    public int readObstruction(Elevator elevator) {
+        return 0;
+    }
+}
+
+
+//------------------------------------------- JOURNAL -----------------------------------------------------------------------------
+//---------------------------------------------------------------------------------------------------------------------------------
+/* ******* WRITES EVERY EVENT AS A FIXED SIZE BINARY RECORD IN AN APPEND-ONLY FILE, MAPPED IN MEMORY BY SEGMENTS ******* */
+/* ******* THE HEADER KEEPS THE ARGUMENTS OF THE BATTERY AND THE NUMBER OF COMPLETE RECORDS, UPDATED AFTER EACH RECORD ******* */
+/* ******* HEADER: magic, version, battery id, columns, floors, basements, elevators per column, header size (int each), record count (long at 32), ******* */
+/* ******* number of zones then the maxFloor of each zone (int each, from 40), the records start after the header (64 bytes in version 1) ******* */
+/* ******* RECORD: time (long), type (byte), unused (byte), column name (char), elevator id (short), travel time of a CAR_MOVED in ms (char, ******* */
+/* ******* 0 in version 1), value1 (int), value2 (int). A CAR_MOVED is written when the car leaves value1, it arrives at value2 after the travel time ******* */
+class JournalEventSink implements EventSink, AutoCloseable {
+    static final int MAGIC = 0x524A4E4C;   //"RJNL"
+    static final int VERSION = 2;          //Version 2 adds the header size, the zones and the travel time of the moves
+    static final int HEADER_SIZE = 64;     //Smallest header, the only size of version 1
+    static final int HEADER_SIZE_POSITION = 28;
+    static final int RECORD_COUNT_POSITION = 32;
+    static final int ZONES_POSITION = 40;
+    static final int RECORD_SIZE = 24;
+    static final int RECORDS_PER_SEGMENT = 1 << 16; //Each mapped segment holds 1.5MB of records
+    FileChannel channel;
+    MappedByteBuffer headerBuffer;
+    MappedByteBuffer segmentBuffer;        //Segment receiving the next records
+    int headerSize;                        //Grows with the number of zones, a multiple of 8 so the records stay aligned
+    long recordCount;
+    boolean isClosed;
+
+    //----------------- Constructor and its attributes -----------------//
+    public JournalEventSink(Path path, Battery battery) throws IOException {
+        int[] zoneMaxFloors = battery.zoneMaxFloors == null ? new int[0] : battery.zoneMaxFloors;
+        this.headerSize = Math.max(HEADER_SIZE, (ZONES_POSITION + 4 + zoneMaxFloors.length * 4 + 7) / 8 * 8);
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.headerBuffer = this.channel.map(FileChannel.MapMode.READ_WRITE, 0, this.headerSize);
+        this.headerBuffer.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, battery.id).putInt(12, battery.numberOfColumns).putInt(16, battery.totalNumberOfFloors)
+                .putInt(20, battery.numberOfBasements).putInt(24, battery.numberOfElevatorsPerColumn).putInt(HEADER_SIZE_POSITION, this.headerSize)
+                .putLong(RECORD_COUNT_POSITION, 0).putInt(ZONES_POSITION, zoneMaxFloors.length);
+        for (int i = 0; i < zoneMaxFloors.length; i++) {
+            this.headerBuffer.putInt(ZONES_POSITION + 4 + i * 4, zoneMaxFloors[i]);
+        }
+        this.recordCount = 0;
+    }
+
+
+    //----------------- Methods for the events -----------------//
+    public void hallCallRequested(Column column, int requestedFloor, Direction direction) {
+        this.append(ElevatorEventType.HALL_CALL_REQUESTED, column, 0, requestedFloor, direction.ordinal());
+    }
+
+    public void floorRequested(Elevator elevator, int requestedFloor) {
+        this.append(ElevatorEventType.FLOOR_REQUESTED, elevator.column, elevator.id, requestedFloor, 0);
+    }
+
+    public void stopAdded(Elevator elevator, int floor) {
+        this.append(ElevatorEventType.STOP_ADDED, elevator.column, elevator.id, floor, 0);
+    }
+
+    public void stopRemoved(Elevator elevator, int floor) {
+        this.append(ElevatorEventType.STOP_REMOVED, elevator.column, elevator.id, floor, 0);
+    }
+
+    public void callAssigned(Elevator elevator, int requestedFloor) {
+        this.append(ElevatorEventType.CALL_ASSIGNED, elevator.column, elevator.id, requestedFloor, 0);
+    }
+
+    public void carMoved(Elevator elevator, int fromFloor, int toFloor) {
+        long travelTime = Math.min(elevator.column.simulation.floorTravelTime, Character.MAX_VALUE);
+        this.append(ElevatorEventType.CAR_MOVED, elevator.column, elevator.id, fromFloor, toFloor, (int) travelTime);
+    }
+
+    public void doorsOpened(Elevator elevator) {
+        this.append(ElevatorEventType.DOORS_OPENED, elevator.column, elevator.id, elevator.getFloor(), 0);
+    }
+
+    public void doorsClosed(Elevator elevator) {
+        this.append(ElevatorEventType.DOORS_CLOSED, elevator.column, elevator.id, elevator.getFloor(), 0);
+    }
+
+    public void sensorChecked(Elevator elevator, Sensor sensor, SensorStatus sensorStatus) {
+        this.append(ElevatorEventType.SENSOR_CHECKED, elevator.column, elevator.id, sensor.ordinal(), sensorStatus.ordinal());
+    }
+
+
+    //----------------- Methods for logic -----------------//
+    /* ******* WRITE A RECORD IN THE MAPPED SEGMENT, THE COLUMNS RUN ON DIFFERENT THREADS SO ONLY ONE OF THEM APPENDS AT A TIME ******* */
+    private void append(ElevatorEventType type, Column column, int elevatorId, int value1, int value2) {
+        this.append(type, column, elevatorId, value1, value2, 0);
+    }
+
+    private synchronized void append(ElevatorEventType type, Column column, int elevatorId, int value1, int value2, int travelTime) {
+        if (this.isClosed) {
+            throw new IllegalStateException("The journal is closed");
+        }
+        int position = (int) (this.recordCount % RECORDS_PER_SEGMENT) * RECORD_SIZE;
+        if (position == 0) { //the segment is full (or this is the first record), map the next one
+            this.segmentBuffer = this.mapSegment(this.recordCount / RECORDS_PER_SEGMENT);
+        }
+        this.segmentBuffer.putLong(position, column.simulation.currentTime).put(position + 8, (byte) type.ordinal()).putChar(position + 10, column.name)
+                .putShort(position + 12, (short) elevatorId).putChar(position + 14, (char) travelTime).putInt(position + 16, value1).putInt(position + 20, value2);
+        this.recordCount++;
+        this.headerBuffer.putLong(RECORD_COUNT_POSITION, this.recordCount); //the records before this count are complete
+    }
+
+    private MappedByteBuffer mapSegment(long segmentIndex) {
+        try {
+            return this.channel.map(FileChannel.MapMode.READ_WRITE, this.headerSize + segmentIndex * RECORDS_PER_SEGMENT * RECORD_SIZE, (long) RECORDS_PER_SEGMENT * RECORD_SIZE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot extend the journal", e);
+        }
+    }
+
+    /* ******* WRITE THE MAPPED PAGES TO THE DISK AND CLOSE THE FILE ******* */
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.isClosed) {
+            return;
+        }
+        this.isClosed = true;
+        if (this.segmentBuffer != null) {
+            this.segmentBuffer.force();
+        }
+        this.headerBuffer.force();
+        this.channel.close();
+    }
+}
+
+/* ******* ONE RECORD READ FROM A JOURNAL ******* */
+class JournalRecord {
+    final long time;
+    final ElevatorEventType type;
+    final char columnName;
+    final int elevatorId;
+    final int travelTime;                  //Milliseconds between the departure and the arrival of a CAR_MOVED, 0 in the journals of version 1
+    final int value1;
+    final int value2;
+
+    public JournalRecord(ByteBuffer buffer, int position) {
+        this.time = buffer.getLong(position);
+        this.type = ElevatorEventType.values()[buffer.get(position + 8)];
+        this.columnName = buffer.getChar(position + 10);
+        this.elevatorId = buffer.getShort(position + 12);
+        this.travelTime = buffer.getChar(position + 14);
+        this.value1 = buffer.getInt(position + 16);
+        this.value2 = buffer.getInt(position + 20);
+    }
+
+    @Override
+    public String toString() {
+        String values = this.type == ElevatorEventType.CAR_MOVED ? this.value1 + " -> " + this.value2
+                : this.type == ElevatorEventType.SENSOR_CHECKED ? Sensor.values()[this.value1] + " " + SensorStatus.values()[this.value2]
+                : this.type == ElevatorEventType.HALL_CALL_REQUESTED ? "floor " + this.value1 + " " + Direction.values()[this.value2]
+                : "floor " + this.value1;
+        return this.time + "ms column" + this.columnName + (this.elevatorId == 0 ? "" : " elevator" + this.columnName + this.elevatorId) + " " + this.type + " " + values;
+    }
+}
+
+/* ******* READS A JOURNAL AND REBUILDS THE STATE OF THE BATTERY (FLOORS, STATUSES, STOPS, DOORS AND BUTTONS) AT ANY TIME ******* */
+/* ******* THE COLUMNS HAVE THEIR OWN CLOCK, SO THE RECORDS ARE FILTERED BY TIME INSTEAD OF STOPPING AT THE FIRST LATER ONE ******* */
+/* ******* A CAR_MOVED ONLY SETS THE DIRECTION WHEN THE CAR LEAVES, IT REACHES THE NEXT FLOOR AFTER THE TRAVEL TIME OF THE RECORD ******* */
+class JournalReplay {
+    int batteryId;
+    int numberOfColumns;
+    int totalNumberOfFloors;
+    int numberOfBasements;
+    int numberOfElevatorsPerColumn;
+    int[] zoneMaxFloors;                   //null when the floors are split evenly (and in the journals of version 1)
+    int headerSize;
+    long recordCount;
+    FileChannel channel;
+
+    //----------------- Constructor and its attributes -----------------//
+    public JournalReplay(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        MappedByteBuffer headerBuffer = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, JournalEventSink.HEADER_SIZE);
+        int version = headerBuffer.getInt(4);
+        if (headerBuffer.getInt(0) != JournalEventSink.MAGIC || version < 1 || version > JournalEventSink.VERSION) {
+            throw new IllegalArgumentException(path + " is not a journal of version 1 to " + JournalEventSink.VERSION);
+        }
+        this.batteryId = headerBuffer.getInt(8);
+        this.numberOfColumns = headerBuffer.getInt(12);
+        this.totalNumberOfFloors = headerBuffer.getInt(16);
+        this.numberOfBasements = headerBuffer.getInt(20);
+        this.numberOfElevatorsPerColumn = headerBuffer.getInt(24);
+        this.recordCount = headerBuffer.getLong(JournalEventSink.RECORD_COUNT_POSITION);
+        this.headerSize = JournalEventSink.HEADER_SIZE;
+        if (version > 1) {
+            this.headerSize = headerBuffer.getInt(JournalEventSink.HEADER_SIZE_POSITION);
+            headerBuffer = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, this.headerSize);
+            int numberOfZones = headerBuffer.getInt(JournalEventSink.ZONES_POSITION);
+            if (numberOfZones > 0) {
+                this.zoneMaxFloors = new int[numberOfZones];
+                for (int i = 0; i < numberOfZones; i++) {
+                    this.zoneMaxFloors[i] = headerBuffer.getInt(JournalEventSink.ZONES_POSITION + 4 + i * 4);
+                }
+            }
+        }
+    }
+
+
+    //----------------- Methods for logic -----------------//
+    /* ******* PASS EVERY RECORD TO THE CONSUMER IN THE ORDER THEY WERE WRITTEN, ONE SEGMENT IS MAPPED AT A TIME ******* */
+    public void forEach(Consumer<JournalRecord> consumer) throws IOException {
+        MappedByteBuffer segmentBuffer = null;
+        for (long i = 0; i < this.recordCount; i++) {
+            int position = (int) (i % JournalEventSink.RECORDS_PER_SEGMENT) * JournalEventSink.RECORD_SIZE;
+            if (position == 0) {
+                long segmentStart = this.headerSize + i * JournalEventSink.RECORD_SIZE;
+                long segmentSize = Math.min(this.recordCount - i, JournalEventSink.RECORDS_PER_SEGMENT) * JournalEventSink.RECORD_SIZE;
+                segmentBuffer = this.channel.map(FileChannel.MapMode.READ_ONLY, segmentStart, segmentSize);
+            }
+            consumer.accept(new JournalRecord(segmentBuffer, position));
+        }
+    }
+
+    /* ******* CREATE A BATTERY LIKE THE RECORDED ONE AND APPLY ALL THE RECORDS UNTIL THE TIME (MILLISECONDS) ******* */
+    public Battery replay(long untilTime) throws IOException {
+        Battery battery = new BatteryBuilder(this.batteryId, this.numberOfColumns, this.totalNumberOfFloors, this.numberOfBasements, this.numberOfElevatorsPerColumn)
+                .withZones(this.zoneMaxFloors).build();
+        battery.eventSink = new NoOpEventSink();
+        Map<Elevator, JournalRecord> movesMap = new HashMap<>(); //Elevators between two floors and the CAR_MOVED of their move
+        this.forEach(record -> {
+            if (record.time <= untilTime) {
+                Column column = battery.columnsList.get(record.columnName - 'A');
+                this.finishMoves(column, movesMap, record.time); //the records of a column are in the order of its clock
+                this.apply(column, record, movesMap);
+            }
+        });
+        battery.columnsList.forEach(column -> this.finishMoves(column, movesMap, untilTime));
+        return battery;
+    }
+
+    /* ******* LOGIC TO CHANGE THE STATE OF THE BATTERY AS THE RECORDED EVENT DID ******* */
+    private void apply(Column column, JournalRecord record, Map<Elevator, JournalRecord> movesMap) {
+        column.simulation.currentTime = Math.max(column.simulation.currentTime, record.time);
+        if (record.type == ElevatorEventType.HALL_CALL_REQUESTED) {
+            column.manageButtonStatusOn(record.value1, Direction.values()[record.value2]);
+            return;
+        }
+        Elevator elevator = column.elevatorsList.get(record.elevatorId - 1);
+        switch (record.type) {
+            case CALL_ASSIGNED:
+                if (this.isAlreadyThere(elevator, record.value1)) { //the elevator answers right away, without opening its doors again
+                    elevator.manageButtonStatusOff(record.value1);
+                }
+                break;
+            case FLOOR_REQUESTED:
+                if (!this.isAlreadyThere(elevator, record.value1) && column.landingFloors.contains(record.value1)) {
+                    elevator.floorButtonsOn.add(record.value1);
+                }
+                break;
+            case STOP_ADDED:
+                elevator.addFloorToFloorList(record.value1);
+                break;
+            case STOP_REMOVED:
+                elevator.cancelStop(record.value1);
+                if (elevator.stopSet.size == 0 && !movesMap.containsKey(elevator) && elevator.elevatorDoor.status == DoorStatus.CLOSED) { //a standing elevator without stops becomes IDLE at its next step
+                    elevator.setStatus(ElevatorStatus.IDLE);
+                }
+                break;
+            case CAR_MOVED: //the car is still at value1 until it arrives, see finishMoves
+                elevator.setStatus(record.value2 > record.value1 ? ElevatorStatus.UP : ElevatorStatus.DOWN);
+                movesMap.put(elevator, record);
+                break;
+            case DOORS_OPENED:
+                elevator.elevatorDoor.status = DoorStatus.OPENED;
+                elevator.deleteFloorFromList(record.value1);
+                elevator.manageButtonStatusOff(record.value1);
+                break;
+            case DOORS_CLOSED:
+                elevator.elevatorDoor.status = DoorStatus.CLOSED;
+                if (elevator.stopSet.size == 0) { //the elevator has no more stops, it becomes IDLE at its next step
+                    elevator.setStatus(ElevatorStatus.IDLE);
+                }
+                break;
+            case SENSOR_CHECKED:
+                if (Sensor.values()[record.value1] == Sensor.WEIGHT) {
+                    elevator.weightSensorStatus = SensorStatus.values()[record.value2];
+                } else {
+                    elevator.obstructionSensorStatus = SensorStatus.values()[record.value2];
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /* ******* LOGIC TO MAKE THE MOVING ELEVATORS OF THE COLUMN ARRIVE WHEN THEIR TRAVEL TIME ENDS BEFORE THE TIME, AS arriveAtFloor DOES ******* */
+    /* ******* AN ELEVATOR WITHOUT STOPS BECOMES IDLE LIKE IN nextStep, THE NEXT CAR_MOVED OF A PARKING MOVE GIVES IT ITS DIRECTION AGAIN ******* */
+    private void finishMoves(Column column, Map<Elevator, JournalRecord> movesMap, long time) {
+        Iterator<Map.Entry<Elevator, JournalRecord>> iterator = movesMap.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Elevator, JournalRecord> move = iterator.next();
+            Elevator elevator = move.getKey();
+            JournalRecord record = move.getValue();
+            long travelTime = record.travelTime > 0 ? record.travelTime : column.simulation.floorTravelTime; //the journals of version 1 have no travel time
+            if (elevator.column == column && record.time + travelTime <= time) {
+                elevator.setFloor(record.value2);
+                elevator.updateDisplays(record.value2);
+                if (elevator.stopSet.size == 0) {
+                    elevator.setStatus(ElevatorStatus.IDLE);
+                }
+                iterator.remove();
+            }
+        }
+    }
+
+    /* ******* SAME TEST AS processMailbox: A STOPPED ELEVATOR OR ONE WITH ITS DOORS OPENED AT THE FLOOR ANSWERS THE REQUEST RIGHT AWAY ******* */
+    private boolean isAlreadyThere(Elevator elevator, int floor) {
+        return elevator.getFloor() == floor && (elevator.getStatus() == ElevatorStatus.IDLE && elevator.stopSet.size == 0 || elevator.elevatorDoor.status == DoorStatus.OPENED);
+    }
+
+    public void close() throws IOException {
+        this.channel.close();
+    }
+}
+
+
+//------------------------------------------- STATE FILE --------------------------------------------------------------------------
+//---------------------------------------------------------------------------------------------------------------------------------
+/* ******* SAVES THE LIVE STATE OF A BATTERY IN A COMPACT BINARY FILE AND RESTORES IT, FOR A WARM RESTART OR A CHECKPOINT ******* */
+/* ******* HEADER: MAGIC, VERSION, SHAPE OF THE BATTERY, STATUS AND CLOCK, THEN THE ZONES (COUNT, THEN maxFloor OF EACH COLUMN ******* */
+/* ******* ABOVE THE LOBBY, 0 WHEN THE FLOORS ARE SPLIT EVENLY), THEN ONE BLOCK PER COLUMN IN THE ORDER OF columnsList ******* */
+/* ******* COLUMN BLOCK: STATUS, TIME, UP/DOWN BUTTONS ON (BITMAPS) AND THEIR ASSIGNED ELEVATOR, THE FLEET ARRAYS AS THEY ARE, ******* */
+/* ******* THEN FOR EACH ELEVATOR ITS DOOR, SENSORS, DISPLAY, FLOOR BUTTONS ON AND MAILBOX, AND THE HALL CALLS NOT DISPATCHED YET ******* */
+/* ******* THEN THE PENDING CALLS (DISPATCHED, NOT ANSWERED YET), THE OLDEST FIRST: THEIR MAILBOX REQUESTS ARE NOT WRITTEN TWICE ******* */
+class BatteryStateFile {
+    static final int MAGIC = 0x52535446;   //"RSTF"
+    static final int VERSION = 3;          //Version 2 adds the zones, version 3 the pending calls (a file of version 2 is still read)
+    static final int HEADER_SIZE = 32;
+    static final int CALL_SIZE = 5;        //Floor (int) and direction or isCarCall (byte) of a waiting call
+    static final int PENDING_CALL_SIZE = 27; //Floor (int), direction (byte), elevator id (short), call and assign times (long), passengers (int)
+
+    //----------------- Methods for logic -----------------//
+    /* ******* EACH COLUMN IS ENCODED BY ITS OWN THREAD SO ITS BLOCK IS CONSISTENT, THE FILE IS REPLACED ONLY WHEN IT IS COMPLETE ******* */
+    public static void write(Battery battery, Path path) throws IOException {
+        List<CompletableFuture<ByteBuffer>> columnBlocksList = new ArrayList<>();
+        battery.columnsList.forEach(column -> {
+            CompletableFuture<ByteBuffer> columnBlock = new CompletableFuture<>();
+            column.submitOrRun(() -> columnBlock.complete(encodeColumn(column)));
+            columnBlocksList.add(columnBlock);
+        });
+        int[] zoneMaxFloors = battery.zoneMaxFloors == null ? new int[0] : battery.zoneMaxFloors;
+        ByteBuffer[] buffers = new ByteBuffer[columnBlocksList.size() + 1];
+        buffers[0] = ByteBuffer.allocate(HEADER_SIZE + 4 + zoneMaxFloors.length * 4).putInt(MAGIC).putInt(VERSION).putInt(battery.id).putInt(battery.numberOfColumns).putInt(battery.totalNumberOfFloors)
+                .putInt(battery.numberOfBasements).putInt(battery.numberOfElevatorsPerColumn).put((byte) battery.status.ordinal()).put((byte) battery.clockMode.ordinal());
+        buffers[0].position(HEADER_SIZE);
+        buffers[0].putInt(zoneMaxFloors.length);
+        Arrays.stream(zoneMaxFloors).forEach(buffers[0]::putInt);
+        buffers[0].flip();
+        for (int i = 0; i < columnBlocksList.size(); i++) {
+            buffers[i + 1] = columnBlocksList.get(i).join();
+        }
+        Path temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (buffers[buffers.length - 1].hasRemaining()) {
+                channel.write(buffers);
+            }
+            channel.force(false);
+        }
+        Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static Battery read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int magic = buffer.getInt();
+            int version = buffer.getInt();
+            if (magic != MAGIC || version < 2 || version > VERSION) {
+                throw new IllegalArgumentException(path + " is not a state file of version 2 to " + VERSION);
+            }
+            int id = buffer.getInt();
+            int numberOfColumns = buffer.getInt();
+            int totalNumberOfFloors = buffer.getInt();
+            int numberOfBasements = buffer.getInt();
+            int numberOfElevatorsPerColumn = buffer.getInt();
+            BatteryStatus batteryStatus = BatteryStatus.values()[buffer.get()];
+            ClockMode clockMode = ClockMode.values()[buffer.get()];
+            buffer.position(HEADER_SIZE);
+            int[] zoneMaxFloors = new int[buffer.getInt()];
+            for (int i = 0; i < zoneMaxFloors.length; i++) {
+                zoneMaxFloors[i] = buffer.getInt();
+            }
+            Battery battery = new Battery(id, numberOfColumns, totalNumberOfFloors, numberOfBasements, numberOfElevatorsPerColumn, batteryStatus, clockMode, zoneMaxFloors.length == 0 ? null : zoneMaxFloors);
+            battery.columnsList.forEach(column -> decodeColumn(column, buffer, version));
+            return battery;
+        }
+    }
+
+    /* ******* LOGIC TO WRITE THE BLOCK OF A COLUMN, CALLED BY THE THREAD OF THE COLUMN ******* */
+    private static ByteBuffer encodeColumn(Column column) {
+        FleetState fleet = column.fleet;
+        StopSet buttonsUpOn = buttonsOn(column, column.buttonsUpArray);
+        StopSet buttonsDownOn = buttonsOn(column, column.buttonsDownArray);
+        List<HallCall> hallCallsList = new ArrayList<>(column.hallCallsQueue); //the queue can grow while the block is written
+        List<PendingCall> pendingCallsList = new ArrayList<>();
+        Set<CompletableFuture<Elevator>> pendingArrivals = Collections.newSetFromMap(new IdentityHashMap<>()); //posted again with their call
+        for (PendingCall call : column.pendingCalls.callsQueue) {
+            if (!call.isAnswered()) {
+                pendingCallsList.add(call);
+                pendingArrivals.addAll(call.arrivalsList);
+            }
+        }
+        List<List<FloorRequest>> mailboxesList = new ArrayList<>();
+        int size = 1 + 8 + 2 * buttonsUpOn.numberOfWords * 8 + 2 * (buttonsUpOn.size + buttonsDownOn.size)
+                + fleet.size * (4 + 1 + fleet.wordsPerElevator * 8) + 4 + hallCallsList.size() * CALL_SIZE + 4 + pendingCallsList.size() * PENDING_CALL_SIZE;
+        for (Elevator elevator : column.elevatorsList) {
+            List<FloorRequest> mailbox = new ArrayList<>();
+            for (FloorRequest request : elevator.mailbox) {
+                if (!pendingArrivals.contains(request.arrival)) {
+                    mailbox.add(request);
+                }
+            }
+            mailboxesList.add(mailbox);
+            size += 3 + 4 + elevator.floorButtonsOn.numberOfWords * 8 + 4 + mailbox.size() * CALL_SIZE;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put((byte) column.status.ordinal()).putLong(column.simulation.currentTime);
+        buttonsUpOn.writeTo(buffer);
+        buttonsDownOn.writeTo(buffer);
+        buttonsUpOn.toList().forEach(floor -> buffer.putShort(assignedElevatorId(column, column.assignedUpArray, floor)));
+        buttonsDownOn.toList().forEach(floor -> buffer.putShort(assignedElevatorId(column, column.assignedDownArray, floor)));
+        for (int i = 0; i < fleet.size; i++) {
+            buffer.putInt(fleet.floorsArray[i]);
+        }
+        buffer.put(fleet.statusesArray, 0, fleet.size);
+        for (int i = 0; i < fleet.size * fleet.wordsPerElevator; i++) {
+            buffer.putLong(fleet.stopsWords[i]);
+        }
+        for (int i = 0; i < column.elevatorsList.size(); i++) {
+            Elevator elevator = column.elevatorsList.get(i);
+            buffer.put((byte) elevator.elevatorDoor.status.ordinal()).put((byte) elevator.weightSensorStatus.ordinal()).put((byte) elevator.obstructionSensorStatus.ordinal());
+            buffer.putInt(elevator.displayFloor);
+            elevator.floorButtonsOn.writeTo(buffer);
+            buffer.putInt(mailboxesList.get(i).size());
+            mailboxesList.get(i).forEach(request -> buffer.putInt(request.floor).put((byte) (request.isCarCall ? 1 : 0)));
+        }
+        buffer.putInt(hallCallsList.size());
+        hallCallsList.forEach(call -> buffer.putInt(call.floor).put((byte) call.direction.ordinal()));
+        buffer.putInt(pendingCallsList.size());
+        for (PendingCall call : pendingCallsList) {
+            int passengers = (int) call.arrivalsList.stream().filter(arrival -> !arrival.isDone()).count();
+            buffer.putInt(call.floor).put((byte) call.direction.ordinal()).putShort((short) call.elevator.id).putLong(call.callTime).putLong(call.assignTime).putInt(passengers);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /* ******* LOGIC TO READ THE BLOCK OF A COLUMN, THE WAITING REQUESTS ARE POSTED AGAIN WITH NEW FUTURES (THEIR CALLERS ARE GONE) ******* */
+    /* ******* AND THE PENDING CALLS ARE REGISTERED AGAIN WITH THEIR TIMES, SO THEY ARE STILL AGED AND REASSIGNED ******* */
+    private static void decodeColumn(Column column, ByteBuffer buffer, int version) {
+        FleetState fleet = column.fleet;
+        column.status = ColumnStatus.values()[buffer.get()];
+        column.simulation.restoreClock(buffer.getLong());
+        StopSet buttonsUpOn = new StopSet(column.lowestFixtureFloor, column.highestFixtureFloor);
+        StopSet buttonsDownOn = new StopSet(column.lowestFixtureFloor, column.highestFixtureFloor);
+        buttonsUpOn.readFrom(buffer);
+        buttonsDownOn.readFrom(buffer);
+        for (int floor : buttonsUpOn.toList()) {
+            column.manageButtonStatusOn(floor, Direction.UP);
+            column.assignedUpArray[column.floorIndex(floor)] = findElevatorById(column, buffer.getShort());
+        }
+        for (int floor : buttonsDownOn.toList()) {
+            column.manageButtonStatusOn(floor, Direction.DOWN);
+            column.assignedDownArray[column.floorIndex(floor)] = findElevatorById(column, buffer.getShort());
+        }
+        for (int i = 0; i < fleet.size; i++) {
+            fleet.floorsArray[i] = buffer.getInt();
+        }
+        for (Elevator elevator : column.elevatorsList) {
+            elevator.metrics.statusTime = column.simulation.currentTime; //the metrics count from the restart
+            elevator.setStatus(FleetState.STATUSES[buffer.get()]);
+        }
+        column.elevatorsList.forEach(elevator -> elevator.stopSet.readFrom(buffer));
+        for (Elevator elevator : column.elevatorsList) {
+            elevator.elevatorDoor.status = DoorStatus.values()[buffer.get()];
+            elevator.weightSensorStatus = SensorStatus.values()[buffer.get()];
+            elevator.obstructionSensorStatus = SensorStatus.values()[buffer.get()];
+            elevator.displayFloor = buffer.getInt();
+            elevator.floorButtonsOn.readFrom(buffer);
+            for (int i = buffer.getInt(); i > 0; i--) {
+                elevator.post(buffer.getInt(), new CompletableFuture<>(), buffer.get() == 1);
+            }
+            elevator.resumeRoute();
+        }
+        for (int i = buffer.getInt(); i > 0; i--) {
+            column.requestElevator(buffer.getInt(), Direction.values()[buffer.get()]);
+        }
+        for (int i = version >= 3 ? buffer.getInt() : 0; i > 0; i--) {
+            int floor = buffer.getInt();
+            Direction direction = Direction.values()[buffer.get()];
+            Elevator elevator = findElevatorById(column, buffer.getShort());
+            long callTime = buffer.getLong();
+            long assignTime = buffer.getLong();
+            List<CompletableFuture<Elevator>> arrivals = new ArrayList<>();
+            for (int j = buffer.getInt(); j > 0; j--) {
+                CompletableFuture<Elevator> arrival = new CompletableFuture<>();
+                elevator.post(floor, arrival, false);
+                arrivals.add(arrival);
+            }
+            int index = column.floorIndex(floor);
+            column.pendingCalls.restore(index >= 0 && index < column.assignedUpArray.length ? index : -1, floor, direction, elevator, arrivals, callTime, assignTime);
+        }
+    }
+
+    /* ******* LOGIC TO FIND THE FLOORS WHERE A BUTTON OF THE ARRAY IS ON ******* */
+    private static StopSet buttonsOn(Column column, Button[] buttonsArray) {
+        StopSet buttonsOn = new StopSet(column.lowestFixtureFloor, column.highestFixtureFloor);
+        for (int i = 0; i < buttonsArray.length; i++) {
+            if (buttonsArray[i] != null && buttonsArray[i].status == ButtonStatus.ON) {
+                buttonsOn.add(column.lowestFixtureFloor + i);
+            }
+        }
+        return buttonsOn;
+    }
+
+    private static short assignedElevatorId(Column column, Elevator[] assignedArray, int floor) {
+        Elevator elevator = column.findByFloor(assignedArray, floor);
+        return (short) (elevator == null ? 0 : elevator.id);
+    }
+
+    private static Elevator findElevatorById(Column column, int elevatorId) {
+        return elevatorId == 0 ? null : column.elevatorsList.get(elevatorId - 1);
+    }
+}
+
+
+//------------------------------------------- CONFIGURATION FILE ------------------------------------------------------------------
+//---------------------------------------------------------------------------------------------------------------------------------
+/* ******* DESCRIBES THE BATTERIES OF ONE OR MANY BUILDINGS IN A TEXT FILE, EACH BATTERY STARTS WITH ITS "battery <id>" LINE: ******* */
+/* *******     battery 1        columns 4        floors 66 (ALL THE FLOORS, THE BASEMENTS INCLUDED)        basements 6        cars 5 ******* */
+/* ******* THEN OPTIONALLY: zones 20 40 60 (maxFloor OF EACH COLUMN ABOVE THE LOBBY), clock VIRTUAL|WALL_CLOCK, status ACTIVE|INACTIVE ******* */
+/* ******* ONE KEY PER LINE, THE LINES STARTING WITH # ARE COMMENTS ******* */
+class BuildingConfigFile {
+
+    //----------------- Methods for logic -----------------//
+    /* ******* READ AND VALIDATE ALL THE BATTERIES BEFORE ANY IS BUILT, THE ERROR GIVES THE LINE OF THE WRONG VALUE ******* */
+    public static List<BatteryBuilder> read(Path path) throws IOException {
+        List<String> linesList = Files.readAllLines(path);
+        List<BatteryBuilder> buildersList = new ArrayList<>();
+        List<Integer> batteryLinesList = new ArrayList<>(); //Line of the "battery" key of each builder, for the errors found by validate
+        for (int i = 0; i < linesList.size(); i++) {
+            String[] fields = linesList.get(i).trim().split("\\s+");
+            if (fields[0].isEmpty() || fields[0].startsWith("#")) {
+                continue;
+            }
+            try {
+                if (fields[0].equals("battery")) {
+                    buildersList.add(new BatteryBuilder(Integer.parseInt(singleValue(fields)), 0, 0, 0, 0));
+                    batteryLinesList.add(i + 1);
+                } else if (buildersList.isEmpty()) {
+                    throw new IllegalArgumentException("the first key of the file is battery, not " + fields[0]);
+                } else {
+                    setValue(buildersList.get(buildersList.size() - 1), fields);
+                }
+            } catch (IllegalArgumentException e) { //also a NumberFormatException or a wrong name of enum
+                throw new IllegalArgumentException(path + ":" + (i + 1) + ": " + e.getMessage(), e);
+            }
+        }
+        Set<Integer> batteryIdsSet = new HashSet<>();
+        for (int i = 0; i < buildersList.size(); i++) {
+            try {
+                if (!batteryIdsSet.add(buildersList.get(i).id)) {
+                    throw new IllegalArgumentException("there is already a battery " + buildersList.get(i).id);
+                }
+                buildersList.get(i).validate();
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(path + ":" + batteryLinesList.get(i) + ": " + e.getMessage(), e);
+            }
+        }
+        return buildersList;
+    }
+
+    /* ******* BUILD ALL THE BATTERIES OF THE FILE, NONE IS BUILT IF ONE OF THEM IS WRONG ******* */
+    public static List<Battery> load(Path path) throws IOException {
+        List<BatteryBuilder> buildersList = read(path);
+        List<Battery> batteriesList = new ArrayList<>(buildersList.size());
+        buildersList.forEach(builder -> batteriesList.add(builder.build()));
+        return batteriesList;
+    }
+
+    private static void setValue(BatteryBuilder builder, String[] fields) {
+        switch (fields[0]) {
+            case "columns":
+                builder.numberOfColumns = Integer.parseInt(singleValue(fields));
+                break;
+            case "floors":
+                builder.totalNumberOfFloors = Integer.parseInt(singleValue(fields));
+                break;
+            case "basements":
+                builder.numberOfBasements = Integer.parseInt(singleValue(fields));
+                break;
+            case "cars":
+                builder.numberOfElevatorsPerColumn = Integer.parseInt(singleValue(fields));
+                break;
+            case "zones":
+                builder.zoneMaxFloors = Arrays.stream(fields, 1, fields.length).mapToInt(Integer::parseInt).toArray();
+                break;
+            case "clock":
+                builder.clockMode = ClockMode.valueOf(singleValue(fields));
+                break;
+            case "status":
+                builder.status = BatteryStatus.valueOf(singleValue(fields));
+                break;
+            default:
+                throw new IllegalArgumentException("unknown key " + fields[0]);
+        }
+    }
+
+    private static String singleValue(String[] fields) {
+        if (fields.length != 2) {
+            throw new IllegalArgumentException("the key " + fields[0] + " takes one value");
+        }
+        return fields[1];
+    }
+}
+
+
+//------------------------------------------- NETWORK -----------------------------------------------------------------------------
+//---------------------------------------------------------------------------------------------------------------------------------
+/* ******* TAKES THE CALLS OF THE FLOOR PANELS OVER TCP, ONE ASCII LINE PER REQUEST AND PER REPLY. ONE SELECTOR THREAD SERVES ******* */
+/* ******* ALL THE CONNECTIONS AND NEVER WAITS FOR THE CONTROLLER, THE REPLIES ARE POSTED BY THE THREADS OF THE COLUMNS: ******* */
+/* *******     T <id> <fromFloor> <destinationFloor>     TRIP FROM A FLOOR PANEL (battery.requestElevator) ******* */
+/* *******     H <id> <column> <floor> <U|D>             HALL CALL, THE COLUMN IS NAMED LIKE B (column.requestElevator) ******* */
+/* *******     C <id> <elevator> <floor>                 CAR CALL, THE ELEVATOR IS NAMED LIKE B3 (elevator.requestFloor) ******* */
+/* ******* REPLIES: A <id> <elevator> WHEN THE ELEVATOR ANSWERING THE REQUEST IS CHOSEN, R <id> <elevator> <floor> WHEN ITS ******* */
+/* ******* DOORS OPEN AT A FLOOR OF THE REQUEST (THE FLOOR OF THE CALL, THEN THE DESTINATION OF A TRIP), E <id> <message> ******* */
+/* ******* WHILE A COLUMN IS SATURATED THE SERVER STOPS READING, SO THE PANELS ARE SLOWED DOWN BY TCP (BACK-PRESSURE) ******* */
+class CallServer implements AutoCloseable {
+    static final long SATURATION_CHECK_PERIOD = 10;  //MILLISECONDS between two checks of the columns while the reading is paused
+    Battery battery;
+    Selector selector;
+    ServerSocketChannel serverChannel;
+    Queue<CallConnection> flushQueue;      //Connections with replies to send, added by the threads of the columns
+    Thread selectorThread;
+    volatile boolean isRunning;
+    boolean isReadPaused;                  //true while a column is saturated, only used by the selector thread
+    long requestCount;                     //Requests decoded, only changed by the selector thread
+    long pauseCount;                       //Times the reading was paused, only changed by the selector thread
+
+    //----------------- Constructor and its attributes -----------------//
+    public CallServer(Battery battery, InetSocketAddress address) throws IOException {
+        this.battery = battery;
+        this.selector = Selector.open();
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(address);
+        this.serverChannel.configureBlocking(false);
+        this.serverChannel.register(this.selector, SelectionKey.OP_ACCEPT);
+        this.flushQueue = new ConcurrentLinkedQueue<>();
+    }
+
+
+    //----------------- Methods for the selector thread -----------------//
+    public InetSocketAddress getAddress() throws IOException {
+        return (InetSocketAddress) this.serverChannel.getLocalAddress();
+    }
+
+    public void start() {
+        this.isRunning = true;
+        this.selectorThread = new Thread(this::runLoop, "battery" + this.battery.id + "-server");
+        this.selectorThread.start();
+    }
+
+    /* ******* STOP THE SELECTOR THREAD AND CLOSE ALL THE CONNECTIONS, THE REPLIES NOT SENT YET ARE DROPPED ******* */
+    public void close() throws IOException {
+        this.isRunning = false;
+        this.selector.wakeup();
+        if (this.selectorThread != null) {
+            try {
+                this.selectorThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (SelectionKey key : this.selector.keys()) {
+            key.channel().close();
+        }
+        this.selector.close();
+    }
+
+    /* ******* LOGIC OF THE SELECTOR THREAD: ACCEPT, READ AND DECODE ALL THE READY CONNECTIONS, THEN SEND THE REPLIES POSTED ******* */
+    private void runLoop() {
+        while (this.isRunning) {
+            try {
+                this.checkSaturation();
+                this.selector.select(this.isReadPaused ? SATURATION_CHECK_PERIOD : 0);
+                for (SelectionKey key : this.selector.selectedKeys()) {
+                    if (key.isValid() && key.isAcceptable()) {
+                        this.accept();
+                    } else if (key.isValid()) {
+                        CallConnection connection = (CallConnection) key.attachment();
+                        if (key.isReadable()) {
+                            connection.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.flush();
+                        }
+                    }
+                }
+                this.selector.selectedKeys().clear();
+                CallConnection connection;
+                while ((connection = this.flushQueue.poll()) != null) {
+                    connection.flush();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = this.serverChannel.accept();
+        if (channel != null) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            CallConnection connection = new CallConnection(this, channel);
+            connection.key = channel.register(this.selector, this.isReadPaused ? 0 : SelectionKey.OP_READ, connection);
+        }
+    }
+
+    /* ******* PAUSE THE READING OF ALL THE CONNECTIONS WHILE A COLUMN IS SATURATED, THE REPLIES ARE STILL SENT ******* */
+    private void checkSaturation() {
+        boolean isSaturated = false;
+        for (Column column : this.battery.columnsList) {
+            isSaturated |= column.isSaturated();
+        }
+        if (isSaturated != this.isReadPaused) {
+            this.isReadPaused = isSaturated;
+            this.pauseCount += isSaturated ? 1 : 0;
+            for (SelectionKey key : this.selector.keys()) {
+                if (key.isValid() && key.attachment() instanceof CallConnection) {
+                    ((CallConnection) key.attachment()).updateInterest();
+                }
+            }
+        }
+    }
+
+
+    //----------------- Methods for logic -----------------//
+    /* ******* DECODE A REQUEST AND SEND IT TO THE CONTROLLER, THE QUEUES OF THE COLUMNS AND ELEVATORS BATCH THE REQUESTS ******* */
+    /* ******* DECODED IN THE SAME PASS OF THE SELECTOR: ONE DISPATCH PASS PER COLUMN AND ONE MAILBOX PASS PER ELEVATOR ******* */
+    public void handle(CallConnection connection, String line) {
+        String[] fields = line.trim().split(" ");
+        String id = fields.length > 1 ? fields[1] : "0";
+        this.requestCount++;
+        try {
+            if (fields[0].equals("T") && fields.length == 4) {
+                int fromFloor = Integer.parseInt(fields[2]);
+                int destinationFloor = Integer.parseInt(fields[3]);
+                Column column = this.battery.findColumn(fromFloor, destinationFloor);
+                CompletableFuture<Elevator> assignment = new CompletableFuture<>();
+                CompletableFuture<Elevator> pickup = column.requestElevator(fromFloor, destinationFloor > fromFloor ? Direction.UP : Direction.DOWN, assignment);
+                this.replyAssignment(connection, id, assignment);
+                this.replyArrival(connection, id, pickup, fromFloor);
+                this.replyArrival(connection, id, pickup.thenCompose(elevator -> elevator.requestFloor(destinationFloor)), destinationFloor);
+            } else if (fields[0].equals("H") && fields.length == 5) {
+                Column column = this.findColumn(fields[2]);
+                int floor = Integer.parseInt(fields[3]);
+                Direction direction = fields[4].equals("U") ? Direction.UP : fields[4].equals("D") ? Direction.DOWN : null;
+                if (direction == null || !column.landingFloors.contains(floor)) {
+                    throw new IllegalArgumentException("No button " + fields[4] + " at the floor " + floor + " of the column " + column.name);
+                }
+                CompletableFuture<Elevator> assignment = new CompletableFuture<>();
+                CompletableFuture<Elevator> arrival = column.requestElevator(floor, direction, assignment);
+                this.replyAssignment(connection, id, assignment);
+                this.replyArrival(connection, id, arrival, floor);
+            } else if (fields[0].equals("C") && fields.length == 4) {
+                Elevator elevator = this.findElevator(fields[2]);
+                Column column = elevator.column;
+                int floor = Integer.parseInt(fields[3]);
+                if (!column.landingFloors.contains(floor)) {
+                    throw new IllegalArgumentException("The column " + column.name + " has no landing at the floor " + floor);
+                }
+                connection.reply("A " + id + " " + fields[2]); //a car call is answered by its own elevator
+                elevator.requestFloor(floor).whenComplete((arrivedElevator, error) -> connection.reply(error == null ? "R " + id + " " + fields[2] + " " + floor : "E " + id + " " + error.getMessage()));
+            } else {
+                throw new IllegalArgumentException("Unknown request: " + line);
+            }
+        } catch (IllegalArgumentException e) { //also a NumberFormatException
+            connection.reply("E " + id + " " + e.getMessage());
+        }
+    }
+
+    private Column findColumn(String name) {
+        int index = name.charAt(0) - 'A';
+        if (index < 0 || index >= this.battery.columnsList.size()) {
+            throw new IllegalArgumentException("No column " + name.charAt(0));
+        }
+        return this.battery.columnsList.get(index);
+    }
+
+    /* ******* THE ELEVATOR NAMED LIKE B3: THE LETTER OF ITS COLUMN THEN ITS ID, ONLY DIGITS AND NO LEADING ZERO ******* */
+    private Elevator findElevator(String name) {
+        Column column = this.findColumn(name);
+        int elevatorId = 0;
+        for (int i = 1; i < name.length() && elevatorId <= column.elevatorsList.size(); i++) {
+            char digit = name.charAt(i);
+            if (digit < '0' || digit > '9' || i == 1 && digit == '0') {
+                throw new IllegalArgumentException("No elevator " + name);
+            }
+            elevatorId = elevatorId * 10 + (digit - '0');
+        }
+        if (elevatorId < 1 || elevatorId > column.elevatorsList.size()) {
+            throw new IllegalArgumentException("No elevator " + name);
+        }
+        return column.elevatorsList.get(elevatorId - 1);
+    }
+
+    private void replyAssignment(CallConnection connection, String id, CompletableFuture<Elevator> assignment) {
+        assignment.whenComplete((elevator, error) -> connection.reply(error == null ? "A " + id + " " + elevator.column.name + elevator.id : "E " + id + " " + error.getMessage()));
+    }
+
+    /* ******* THE ERROR OF A CALL IS REPLIED ONCE, WITH ITS ASSIGNMENT ******* */
+    private void replyArrival(CallConnection connection, String id, CompletableFuture<Elevator> arrival, int floor) {
+        arrival.thenAccept(elevator -> connection.reply("R " + id + " " + elevator.column.name + elevator.id + " " + floor));
+    }
+}
+
+/* ******* A CONNECTION OF THE CallServer, ITS BUFFERS ARE ONLY USED BY THE SELECTOR THREAD ******* */
+class CallConnection {
+    static final int BUFFER_SIZE = 64 * 1024;
+    CallServer server;
+    SocketChannel channel;
+    SelectionKey key;
+    ByteBuffer readBuffer;                 //Bytes received and not decoded yet, a request ends with '\n'
+    ByteBuffer writeBuffer;                //Replies encoded and not sent yet
+    Queue<String> repliesQueue;            //Replies posted from any thread, encoded by the selector thread
+    AtomicBoolean isFlushScheduled;
+    boolean hasMoreToWrite;                //Replies left when the socket was full, written when it is writable again
+
+    //----------------- Constructor and its attributes -----------------//
+    public CallConnection(CallServer server, SocketChannel channel) {
+        this.server = server;
+        this.channel = channel;
+        this.readBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        this.writeBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        this.repliesQueue = new ConcurrentLinkedQueue<>();
+        this.isFlushScheduled = new AtomicBoolean(false);
+    }
+
+
+    //----------------- Methods for logic -----------------//
+    /* ******* READ WHAT HAS ARRIVED AND HANDLE EVERY COMPLETE LINE, THE END OF AN INCOMPLETE LINE COMES WITH THE NEXT READ ******* */
+    public void read() {
+        try {
+            if (this.channel.read(this.readBuffer) == -1) {
+                this.close();
+                return;
+            }
+        } catch (IOException e) {
+            this.close();
+            return;
+        }
+        this.readBuffer.flip();
+        int lineStart = 0;
+        for (int i = 0; i < this.readBuffer.limit(); i++) {
+            if (this.readBuffer.get(i) == '\n') {
+                this.server.handle(this, new String(this.readBuffer.array(), lineStart, i - lineStart, StandardCharsets.US_ASCII));
+                lineStart = i + 1;
+            }
+        }
+        this.readBuffer.position(lineStart);
+        this.readBuffer.compact();
+        if (!this.readBuffer.hasRemaining()) { //a line longer than the buffer is not a request
+            this.reply("E 0 Request longer than " + BUFFER_SIZE + " bytes");
+            this.readBuffer.clear();
+        }
+    }
+
+    /* ******* POST A REPLY FROM ANY THREAD, THE SELECTOR IS WOKEN UP ONCE FOR ALL THE REPLIES POSTED BEFORE ITS NEXT FLUSH ******* */
+    public void reply(String line) {
+        this.repliesQueue.add(line);
+        if (this.isFlushScheduled.compareAndSet(false, true)) {
+            this.server.flushQueue.add(this);
+            this.server.selector.wakeup();
+        }
+    }
+
+    /* ******* ENCODE THE POSTED REPLIES AND WRITE AS MUCH AS THE SOCKET TAKES, THE REST IS WRITTEN WHEN IT IS WRITABLE AGAIN ******* */
+    public void flush() {
+        if (!this.key.isValid()) {
+            return;
+        }
+        this.isFlushScheduled.set(false);
+        String line;
+        while ((line = this.repliesQueue.peek()) != null && this.writeBuffer.remaining() > line.length()) {
+            this.repliesQueue.poll();
+            for (int i = 0; i < line.length(); i++) {
+                this.writeBuffer.put((byte) line.charAt(i));
+            }
+            this.writeBuffer.put((byte) '\n');
+        }
+        this.writeBuffer.flip();
+        try {
+            this.channel.write(this.writeBuffer);
+        } catch (IOException e) {
+            this.close();
+            return;
+        }
+        this.writeBuffer.compact();
+        this.hasMoreToWrite = this.writeBuffer.position() > 0 || !this.repliesQueue.isEmpty();
+        this.updateInterest();
+    }
+
+    public void updateInterest() {
+        this.key.interestOps((this.server.isReadPaused ? 0 : SelectionKey.OP_READ) | (this.hasMoreToWrite ? SelectionKey.OP_WRITE : 0));
+    }
+
+    public void close() {
+        this.key.cancel();
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
+
+/* ******* OPENS CONNECTIONS TO A CallServer LIKE MANY FLOOR PANELS, EACH ONE SENDS TRIPS FROM AND TO THE LOBBY AS FAST AS ******* */
+/* ******* THEY ARE ASSIGNED (AT MOST window TRIPS WAIT FOR THEIR ASSIGNMENT) AND WAITS FOR ALL THE ARRIVALS. REPORTS THE ******* */
+/* ******* REQUESTS PER SECOND AND THE LATENCY OF THE ACKNOWLEDGEMENT, FROM THE SENDING OF A TRIP TO ITS ASSIGNMENT (A) ******* */
+class CallLoadClient {
+    InetSocketAddress address;
+    int numberOfConnections;
+    int requestsPerConnection;
+    int window;
+    int minFloor;                          //Floors of the trips, the lobby excluded
+    int maxFloor;
+    long seed;
+    LatencyHistogram ackHistogram;         //Latency of the acknowledgements in MICROSECONDS
+    long assignedCount;
+    long arrivedCount;
+    long errorCount;
+    long elapsedTime;                      //From the first connection to the last arrival in NANOSECONDS
+
+    //----------------- Constructor and its attributes -----------------//
+    public CallLoadClient(InetSocketAddress address, int numberOfConnections, int requestsPerConnection, int window, int minFloor, int maxFloor, long seed) {
+        this.address = address;
+        this.numberOfConnections = numberOfConnections;
+        this.requestsPerConnection = requestsPerConnection;
+        this.window = window;
+        this.minFloor = minFloor;
+        this.maxFloor = maxFloor;
+        this.seed = seed;
+        this.ackHistogram = new LatencyHistogram(10, 100_000);
+    }
+
+
+    //----------------- Methods for logic -----------------//
+    /* ******* RUN ALL THE CONNECTIONS, EACH ONE ON ITS OWN THREAD, AND ADD UP THEIR RESULTS ******* */
+    public void run() throws InterruptedException {
+        SplittableRandom random = new SplittableRandom(this.seed);
+        List<CallLoadConnection> connectionsList = new ArrayList<>();
+        List<Thread> threadsList = new ArrayList<>();
+        long startTime = System.nanoTime();
+        for (int i = 0; i < this.numberOfConnections; i++) {
+            CallLoadConnection connection = new CallLoadConnection(this, random.split());
+            connectionsList.add(connection);
+            threadsList.add(new Thread(connection::run, "client" + i));
+        }
+        threadsList.forEach(Thread::start);
+        for (Thread thread : threadsList) {
+            thread.join();
+        }
+        this.elapsedTime = System.nanoTime() - startTime;
+        for (CallLoadConnection connection : connectionsList) {
+            this.ackHistogram.merge(connection.ackHistogram);
+            this.assignedCount += connection.assignedCount;
+            this.arrivedCount += connection.arrivedCount;
+            this.errorCount += connection.errorCount;
+        }
+    }
+
+    public void printReport() {
+        long requestCount = (long) this.numberOfConnections * this.requestsPerConnection;
+        System.out.printf("%d trips on %d connections in %dms: %.0f requests per second | Assigned: %d | Arrivals: %d | Errors: %d%n",
+                requestCount, this.numberOfConnections, this.elapsedTime / 1_000_000, requestCount * 1e9 / this.elapsedTime, this.assignedCount, this.arrivedCount, this.errorCount);
+        System.out.printf("Acknowledgement latency (us) | mean %d | p50 %d | p95 %d | p99 %d | max %d%n", this.ackHistogram.mean(),
+                this.ackHistogram.percentile(50), this.ackHistogram.percentile(95), this.ackHistogram.percentile(99), this.ackHistogram.max());
+    }
+}
+
+/* ******* ONE CONNECTION OF THE CallLoadClient: ITS THREAD READS THE REPLIES, A SECOND THREAD SENDS THE TRIPS ******* */
+class CallLoadConnection {
+    CallLoadClient client;
+    SplittableRandom random;
+    AtomicLongArray sendTimesArray;        //System.nanoTime() when each trip was sent, indexed by the id of the trip
+    Semaphore window;                      //Trips that can be sent before the next assignment
+    LatencyHistogram ackHistogram;
+    long assignedCount;
+    long arrivedCount;
+    long errorCount;
+
+    //----------------- Constructor and its attributes -----------------//
+    public CallLoadConnection(CallLoadClient client, SplittableRandom random) {
+        this.client = client;
+        this.random = random;
+        this.sendTimesArray = new AtomicLongArray(client.requestsPerConnection);
+        this.window = new Semaphore(client.window);
+        this.ackHistogram = new LatencyHistogram(10, 100_000);
+    }
+
+
+    //----------------- Methods for logic -----------------//
+    /* ******* READ THE REPLIES UNTIL EVERY TRIP IS ASSIGNED AND ARRIVED AT ITS TWO FLOORS, OR REFUSED ******* */
+    public void run() {
+        try (SocketChannel channel = SocketChannel.open(this.client.address)) {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Thread sender = new Thread(() -> this.sendTrips(channel), Thread.currentThread().getName() + "-sender");
+            sender.start();
+            ByteBuffer buffer = ByteBuffer.allocate(CallConnection.BUFFER_SIZE);
+            while (this.assignedCount + this.errorCount < this.client.requestsPerConnection || this.arrivedCount < 2 * this.assignedCount) {
+                if (channel.read(buffer) == -1) {
+                    throw new IOException("The server closed the connection");
+                }
+                buffer.flip();
+                int lineStart = 0;
+                for (int i = 0; i < buffer.limit(); i++) {
+                    if (buffer.get(i) == '\n') {
+                        this.handleReply(new String(buffer.array(), lineStart, i - lineStart, StandardCharsets.US_ASCII));
+                        lineStart = i + 1;
+                    }
+                }
+                buffer.position(lineStart);
+                buffer.compact();
+            }
+            sender.join();
+        } catch (IOException | InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void handleReply(String line) {
+        String[] fields = line.split(" ", 3);
+        switch (fields[0]) {
+            case "A":
+                this.ackHistogram.record((System.nanoTime() - this.sendTimesArray.get(Integer.parseInt(fields[1]))) / 1000);
+                this.assignedCount++;
+                this.window.release();
+                break;
+            case "R":
+                this.arrivedCount++;
+                break;
+            default:
+                this.errorCount++;
+                this.window.release();
+        }
+    }
+
+    /* ******* SEND THE TRIPS, ALL THE TRIPS ALLOWED BY THE WINDOW ARE WRITTEN TOGETHER ******* */
+    private void sendTrips(SocketChannel channel) {
+        ByteBuffer buffer = ByteBuffer.allocate(CallConnection.BUFFER_SIZE);
+        try {
+            for (int id = 0; id < this.client.requestsPerConnection; id++) {
+                if (!this.window.tryAcquire()) {
+                    this.write(channel, buffer);
+                    this.window.acquire();
+                }
+                int floor = 1;
+                while (floor == 1 || floor == 0) { //the other end of the trip is the lobby, and there is no floor 0
+                    floor = this.random.nextInt(this.client.minFloor, this.client.maxFloor + 1);
+                }
+                String line = this.random.nextBoolean() ? "T " + id + " 1 " + floor + "\n" : "T " + id + " " + floor + " 1\n";
+                if (buffer.remaining() < line.length()) {
+                    this.write(channel, buffer);
+                }
+                this.sendTimesArray.set(id, System.nanoTime());
+                buffer.put(line.getBytes(StandardCharsets.US_ASCII));
+            }
+            this.write(channel, buffer);
+        } catch (IOException | InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void write(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
+
+
+//------------------------------------------- DISPATCH STRATEGIES -----------------------------------------------------------------
+//---------------------------------------------------------------------------------------------------------------------------------
+/* ******* CHOOSES THE ELEVATOR ANSWERING A HALL CALL, CALLED BY THE THREAD OF THE COLUMN ******* */
+interface DispatchStrategy {
+    Elevator selectElevator(Column column, int currentFloor, Direction direction);
+}
+
+/* ******* DEFAULT STRATEGY: SAME DIRECTION FIRST, THEN IDLE, THEN THE NEAREST ONE ******* */
+class PriorityDispatchStrategy implements DispatchStrategy {
+    /* ******* LOGIC TO FIND THE BEST ELEVATOR WITH A PRIORITIZATION LOGIC, IN ONE PASS OVER THE ARRAYS OF THE FLEET STATE ******* */
+    public Elevator selectElevator(Column column, int currentFloor, Direction direction) {
+        FleetState fleet = column.fleet;
+        int[] floorsArray = fleet.floorsArray;
+        byte[] statusesArray = fleet.statusesArray;
+        byte idle = (byte) ElevatorStatus.IDLE.ordinal();
+        byte up = (byte) ElevatorStatus.UP.ordinal();
+        byte down = (byte) ElevatorStatus.DOWN.ordinal();
+        byte sameDirection = direction == Direction.UP ? up : down;
+        int bestIndex = -1;
+        int bestPriority = Integer.MAX_VALUE;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int i = 0; i < fleet.size; i++) {
+            byte status = statusesArray[i];
+            int floor = floorsArray[i];
+            int priority;
+            if (status == idle) {
+                priority = 2; // 2- Try to use an elevator that is IDLE
+            } else if (status == up && floor <= currentFloor || status == down && floor >= currentFloor) {
+                //The request is on the elevators way
+                priority = status == sameDirection ? 1 : 3; // 1- Try to use an elevator that is moving and has the same direction, 3- or one moving at the contrary direction
+            } else {
+                priority = 4; // 4- Every elevator is going away from the request, the nearest one comes back after its route
+            }
+            int distance = Math.abs(floor - currentFloor);
+            if (priority < bestPriority || priority == bestPriority && distance < bestDistance) { //On a tie, the first elevator of the column is kept
+                bestIndex = i;
+                bestPriority = priority;
+                bestDistance = distance;
+            }
+        }
+        return bestIndex == -1 ? null : column.elevatorsList.get(bestIndex);
+    }
+}
+
+/* ******* CHOOSES THE ELEVATOR WITH THE LOWEST ESTIMATED TIME OF ARRIVAL (ETA) ******* */
+class EtaDispatchStrategy implements DispatchStrategy {
+    public Elevator selectElevator(Column column, int currentFloor, Direction direction) {
+        Elevator bestElevator = column.elevatorsList.get(0);
+        long bestTime = Long.MAX_VALUE;
+        for (Elevator elevator : column.elevatorsList) {
+            long time = this.estimateTimeOfArrival(elevator, currentFloor, direction);
+            if (time < bestTime) {
+                bestElevator = elevator;
+                bestTime = time;
+            }
+        }
+        return bestElevator;
+    }
+
+    /* ******* ESTIMATE HOW MUCH TIME THE ELEVATOR NEEDS TO REACH THE FLOOR AND ANSWER A CALL IN THIS DIRECTION ******* */
+    /* ******* THE ELEVATOR FINISHES ITS SWEEP (UP TO THE HIGHEST STOP OR DOWN TO THE LOWEST ONE) BEFORE TURNING BACK ******* */
+    public long estimateTimeOfArrival(Elevator elevator, int requestedFloor, Direction direction) {
+        Simulation simulation = elevator.column.simulation;
+        StopSet stopSet = elevator.stopSet;
+        int floor = elevator.getFloor();
+        if (elevator.getStatus() == ElevatorStatus.IDLE || stopSet.size == 0) {
+            return Math.abs(requestedFloor - floor) * simulation.floorTravelTime;
+        }
+        boolean isGoingUp = elevator.getStatus() == ElevatorStatus.UP;
+        Direction elevatorDirection = isGoingUp ? Direction.UP : Direction.DOWN;
+        int turnFloor = isGoingUp ? Math.max(stopSet.highest(), floor) : Math.min(stopSet.lowest(), floor); //end of the current sweep
+        int distance;
+        int stopsCount;
+        if (isGoingUp ? requestedFloor >= floor && (direction == elevatorDirection || requestedFloor >= turnFloor) : requestedFloor <= floor && (direction == elevatorDirection || requestedFloor <= turnFloor)) {
+            // 1- The floor is ahead, the elevator stops there during its current sweep
+            distance = Math.abs(requestedFloor - floor);
+            stopsCount = stopSet.countBetween(floor, requestedFloor);
+        } else if (direction != elevatorDirection) {
+            // 2- The elevator finishes its sweep, turns back and stops there on its way back
+            distance = Math.abs(turnFloor - floor) + Math.abs(turnFloor - requestedFloor);
+            stopsCount = stopSet.countBetween(floor, turnFloor) + (stopSet.contains(turnFloor) && turnFloor != floor ? 1 : 0);
+            stopsCount += (isGoingUp ? requestedFloor < floor : requestedFloor > floor) ? stopSet.countBetween(floor, requestedFloor) : 0;
+        } else {
+            // 3- The floor is behind in the same direction: the elevator finishes its sweep, the sweep back, then comes back to it
+            int backFloor = isGoingUp ? Math.min(Math.min(stopSet.lowest(), floor), requestedFloor) : Math.max(Math.max(stopSet.highest(), floor), requestedFloor);
+            distance = Math.abs(turnFloor - floor) + Math.abs(turnFloor - backFloor) + Math.abs(requestedFloor - backFloor);
+            stopsCount = stopSet.size;
+        }
+        return distance * simulation.floorTravelTime + stopsCount * simulation.doorDwellTime;
+    }
+
+}
+
+
+//------------------------------------------- PARKING PLANNER ---------------------------------------------------------------------
+//---------------------------------------------------------------------------------------------------------------------------------
+/* ******* LEARNS WHERE THE HALL CALLS OF A COLUMN COME FROM AT EACH TIME OF DAY, AND CHOOSES WHERE THE IDLE ELEVATORS WAIT ******* */
+/* ******* THE DAY IS CUT IN SLOTS OF 15 MINUTES, EACH SLOT KEEPS THE ORIGIN OF ITS LAST CALLS IN A RING BUFFER OF FIXED SIZE, ******* */
+/* ******* SO THE LAST DAYS COUNT AND THE OLD ONES ARE FORGOTTEN (THE LOBBY BEFORE 9AM, THE UPPER FLOORS BEFORE 5PM, ...) ******* */
+/* ******* ONLY USED BY THE THREAD OF THE COLUMN ******* */
+class ParkingPlanner {
+    static final long DAY_DURATION = 24 * 3_600_000L;
+    static final long SLOT_DURATION = 15 * 60_000L;
+    static final int NUMBER_OF_SLOTS = (int) (DAY_DURATION / SLOT_DURATION);
+    static final int CALLS_PER_SLOT = 64;  //Size of the ring buffer of each slot
+    static final long LOOK_AHEAD = 5 * 60_000L; //The demand is predicted for the slot of the time in 5 minutes
+    static final int MINIMUM_CALLS = 2;    //An elevator does not move for a floor with fewer calls in the slot
+    Column column;
+    LocalTime startTimeOfDay;              //Time of day when the clock of the column was at 0
+    int[] originsArray;                    //Ring buffers of the slots one after the other, CALLS_PER_SLOT floors each
+    int[] nextIndexArray;                  //Next index to overwrite in the ring buffer of each slot
+    int[] numberOfCallsArray;              //Calls in the ring buffer of each slot, up to CALLS_PER_SLOT
+    int[] demandArray;                     //Calls of each floor in the predicted slot, indexed by column.floorIndex(floor), reused by every choice
+
+    //----------------- Constructor and its attributes -----------------//
+    public ParkingPlanner(Column column, LocalTime startTimeOfDay) {
+        this.column = column;
+        this.startTimeOfDay = startTimeOfDay;
+        this.originsArray = new int[NUMBER_OF_SLOTS * CALLS_PER_SLOT];
+        this.nextIndexArray = new int[NUMBER_OF_SLOTS];
+        this.numberOfCallsArray = new int[NUMBER_OF_SLOTS];
+        this.demandArray = new int[column.highestFixtureFloor - column.lowestFixtureFloor + 1];
+    }
+
+
+    //----------------- Methods for logic -----------------//
+    /* ******* GET THE TIME OF DAY OF A TIME OF THE CLOCK OF THE COLUMN ******* */
+    public LocalTime timeOfDay(long time) {
+        return this.startTimeOfDay.plusNanos(time % DAY_DURATION * 1_000_000);
+    }
+
+    /* ******* GET THE SLOT OF A TIME OF THE CLOCK OF THE COLUMN ******* */
+    public int slotOf(long time) {
+        return (int) ((this.startTimeOfDay.toSecondOfDay() * 1000L + time) % DAY_DURATION / SLOT_DURATION);
+    }
+
+    /* ******* REMEMBER THE ORIGIN OF A CALL IN THE RING BUFFER OF ITS SLOT, OVERWRITING THE OLDEST ONE WHEN IT IS FULL ******* */
+    public void recordCall(int floor, long time) {
+        int slot = this.slotOf(time);
+        this.originsArray[slot * CALLS_PER_SLOT + this.nextIndexArray[slot]] = floor;
+        this.nextIndexArray[slot] = (this.nextIndexArray[slot] + 1) % CALLS_PER_SLOT;
+        this.numberOfCallsArray[slot] = Math.min(this.numberOfCallsArray[slot] + 1, CALLS_PER_SLOT);
+    }
+
+    /* ******* CHOOSE THE FLOOR WITH THE MOST EXPECTED CALLS THAT NO OTHER WAITING ELEVATOR COVERS, THE NEAREST ONE FOR A TIE ******* */
+    /* ******* RETURNS StopSet.NONE WHEN THERE IS NOT ENOUGH DEMAND, THE ELEVATOR THEN STAYS WHERE IT IS ******* */
+    public int chooseParkingFloor(Elevator elevator) {
+        int slot = this.slotOf(this.column.simulation.currentTime + LOOK_AHEAD);
+        Arrays.fill(this.demandArray, 0);
+        for (int i = 0; i < this.numberOfCallsArray[slot]; i++) {
+            int index = this.column.floorIndex(this.originsArray[slot * CALLS_PER_SLOT + i]);
+            if (index != -1) {
+                this.demandArray[index]++;
+            }
+        }
+        for (Elevator otherElevator : this.column.elevatorsList) { //a floor where an elevator already waits needs no other one
+            if (otherElevator != elevator && otherElevator.stopSet.size == 0) {
+                int coveredFloor = otherElevator.parkingFloor != StopSet.NONE ? otherElevator.parkingFloor : otherElevator.isRunning ? StopSet.NONE : otherElevator.getFloor();
+                int index = coveredFloor == StopSet.NONE ? -1 : this.column.floorIndex(coveredFloor);
+                if (index != -1) {
+                    this.demandArray[index] = 0;
+                }
+            }
+        }
+        int bestFloor = StopSet.NONE;
+        int bestDemand = MINIMUM_CALLS - 1;
+        for (int index = 0; index < this.demandArray.length; index++) {
+            int floor = this.column.lowestFixtureFloor + index;
+            if (this.demandArray[index] > bestDemand || this.demandArray[index] == bestDemand && bestFloor != StopSet.NONE
+                    && Math.abs(floor - elevator.getFloor()) < Math.abs(bestFloor - elevator.getFloor())) {
+                bestFloor = floor;
+                bestDemand = this.demandArray[index];
+            }
+        }
+        return bestFloor;
+    }
+}
+
+
+//------------------------------------------- PENDING CALLS -----------------------------------------------------------------------
+//---------------------------------------------------------------------------------------------------------------------------------
+/* ******* KEEPS THE HALL CALLS OF A COLUMN FROM THEIR DISPATCH TO THEIR ANSWER, ONLY USED BY THE THREAD OF THE COLUMN ******* */
+/* ******* THE CALLS ARE REGISTERED IN THE ORDER OF THEIR TIME, SO THE DEQUE IS SORTED BY AGE AND ITS HEAD IS THE OLDEST CALL. ******* */
+/* ******* EVERY AGING_PERIOD, A CALL WAITING FOR MORE THAN REASSIGN_WAIT GOES TO THE ELEVATOR WITH THE LOWEST ETA IF IT ARRIVES ******* */
+/* ******* REASSIGN_GAIN SOONER THAN ITS ELEVATOR (AN ELEVATOR GOING AWAY TO THE END OF ITS SWEEP), THE OLDEST CALLS FIRST. ******* */
+/* ******* THE CHECK RUNS WITH THE STEPS OF THE ELEVATORS: A WAITING CALL HAS AN ELEVATOR RUNNING, AND NO EVENT OUTLIVES THE CALLS ******* */
+class PendingCallRegistry {
+    static final long AGING_PERIOD = 5_000;              //MILLISECONDS between two checks of the waiting calls
+    static final long REASSIGN_WAIT = 30_000;            //Wait in MILLISECONDS before a call can go to another elevator, again after each reassignment
+    static final long REASSIGN_GAIN = 10_000;            //The other elevator arrives at least this many MILLISECONDS sooner
+    static final int SATURATION_CALLS_PER_ELEVATOR = 8;  //The column is saturated with more waiting passengers per elevator than this
+    Column column;
+    EtaDispatchStrategy etaStrategy;       //Estimates the arrival of the elevators, whatever the dispatch strategy of the column
+    ArrayDeque<PendingCall> callsQueue;    //Calls not answered yet, the oldest first (answered calls are removed when they are met)
+    PendingCall[] pendingUpArray;          //Call of the UP button of each floor while it is ON, indexed by floorIndex(floor)
+    PendingCall[] pendingDownArray;        //Call of the DOWN button of each floor while it is ON, indexed by floorIndex(floor)
+    volatile int pendingCount;             //Passengers waiting for their elevator, only changed by the thread of the column
+    int saturationCount;
+    long nextAgingTime;                    //Time of the next check of the waiting calls in MILLISECONDS
+
+    //----------------- Constructor and its attributes -----------------//
+    public PendingCallRegistry(Column column) {
+        this.column = column;
+        this.etaStrategy = new EtaDispatchStrategy();
+        this.callsQueue = new ArrayDeque<>();
+        this.saturationCount = SATURATION_CALLS_PER_ELEVATOR * column.numberOfElevatorsPerColumn;
+    }
+
+
+    //----------------- Methods for logic -----------------//
+    /* ******* REGISTER A CALL JUST DISPATCHED, index IS THE floorIndex OF ITS FLOOR OR -1 IF THE COLUMN HAS NO BUTTON THERE ******* */
+    public void register(int index, int floor, Direction direction, Elevator elevator, CompletableFuture<Elevator> arrival, long callTime) {
+        this.restore(index, floor, direction, elevator, Collections.singletonList(arrival), callTime, callTime);
+    }
+
+    /* ******* REGISTER A CALL READ FROM A STATE FILE, WITH THE ARRIVALS OF ITS WAITING PASSENGERS, AFTER THE OLDER CALLS ******* */
+    public void restore(int index, int floor, Direction direction, Elevator elevator, List<CompletableFuture<Elevator>> arrivals, long callTime, long assignTime) {
+        PendingCall call = new PendingCall(floor, direction, elevator, callTime);
+        call.assignTime = assignTime;
+        this.callsQueue.add(call);
+        if (index != -1) {
+            this.pendingArray(direction)[index] = call;
+        }
+        arrivals.forEach(arrival -> this.add(call, arrival));
+    }
+
+    /* ******* A PRESS ON A BUTTON ALREADY ON JOINS ITS CALL, IT IS REASSIGNED WITH IT ******* */
+    public void join(int index, Direction direction, CompletableFuture<Elevator> arrival) {
+        PendingCall call = this.pendingArray(direction)[index];
+        if (call != null && !call.isAnswered()) {
+            this.add(call, arrival);
+        }
+    }
+
+    private void add(PendingCall call, CompletableFuture<Elevator> arrival) {
+        call.arrivalsList.add(arrival);
+        this.pendingCount++;
+        arrival.whenComplete((elevator, error) -> this.pendingCount--); //completed by the thread of the column
+    }
+
+    private PendingCall[] pendingArray(Direction direction) {
+        if (this.pendingUpArray == null) { //the fixture floors of the column are known once its lists are created
+            this.pendingUpArray = new PendingCall[this.column.assignedUpArray.length];
+            this.pendingDownArray = new PendingCall[this.column.assignedDownArray.length];
+        }
+        return direction == Direction.UP ? this.pendingUpArray : this.pendingDownArray;
+    }
+
+    /* ******* CHECK THE CALLS WAITING FOR MORE THAN REASSIGN_WAIT, THE OLDEST FIRST, AT MOST ONCE PER AGING_PERIOD ******* */
+    public void ageIfDue(long currentTime) {
+        if (currentTime < this.nextAgingTime || this.callsQueue.isEmpty()) {
+            return;
+        }
+        this.nextAgingTime = currentTime + AGING_PERIOD;
+        Iterator<PendingCall> iterator = this.callsQueue.iterator();
+        while (iterator.hasNext()) {
+            PendingCall call = iterator.next();
+            if (call.isAnswered()) {
+                iterator.remove();
+            } else if (currentTime - call.callTime < REASSIGN_WAIT) {
+                break; //the next calls are younger
+            } else if (currentTime - call.assignTime >= REASSIGN_WAIT) {
+                this.reassign(call, currentTime);
+            }
+        }
+    }
+
+    /* ******* GIVE THE CALL TO THE ELEVATOR ARRIVING FIRST, ITS FIRST ELEVATOR TAKES BACK THE ARRIVALS OF THE CALL AND CANCELS ******* */
+    /* ******* ITS STOP IF NO OTHER REQUEST WAITS FOR IT AT THE FLOOR ******* */
+    private void reassign(PendingCall call, long currentTime) {
+        Elevator bestElevator = call.elevator;
+        long bestTime = this.etaStrategy.estimateTimeOfArrival(call.elevator, call.floor, call.direction) - REASSIGN_GAIN;
+        for (Elevator elevator : this.column.elevatorsList) {
+            long time = this.etaStrategy.estimateTimeOfArrival(elevator, call.floor, call.direction);
+            if (time < bestTime) {
+                bestElevator = elevator;
+                bestTime = time;
+            }
+        }
+        call.assignTime = currentTime;
+        if (bestElevator == call.elevator) {
+            return;
+        }
+        int index = this.column.floorIndex(call.floor);
+        Elevator[] assignedArray = call.direction == Direction.UP ? this.column.assignedUpArray : this.column.assignedDownArray;
+        if (index >= 0 && index < assignedArray.length && assignedArray[index] == call.elevator) { //the next presses join the new elevator
+            assignedArray[index] = bestElevator;
+        }
+        call.elevator.withdrawArrivals(call.floor, call.arrivalsList);
+        call.elevator = bestElevator;
+        this.column.metrics.reassignedCalls.increment();
+        this.column.battery.eventSink.callAssigned(bestElevator, call.floor);
+        for (CompletableFuture<Elevator> arrival : call.arrivalsList) {
+            if (!arrival.isDone()) {
+                bestElevator.post(call.floor, arrival, false);
+            }
+        }
+    }
+}
+
+/* ******* HALL CALL DISPATCHED TO AN ELEVATOR, WITH THE ARRIVALS OF ALL THE PRESSES OF ITS BUTTON ******* */
+class PendingCall {
+    int floor;
+    Direction direction;
+    Elevator elevator;                     //Elevator answering the call, changed when the call is reassigned
+    long callTime;                         //Time of the first press in MILLISECONDS
+    long assignTime;                       //Time of the last assignment in MILLISECONDS
+    List<CompletableFuture<Elevator>> arrivalsList;
+
+    public PendingCall(int floor, Direction direction, Elevator elevator, long callTime) {
+        this.floor = floor;
+        this.direction = direction;
+        this.elevator = elevator;
+        this.callTime = callTime;
+        this.assignTime = callTime;
+        this.arrivalsList = new ArrayList<>(1);
+    }
+
+    public boolean isAnswered() {
+        for (CompletableFuture<Elevator> arrival : this.arrivalsList) {
+            if (!arrival.isDone()) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
+
+
+//------------------------------------------- SIMULATION CLASS --------------------------------------------------------------------
+//---------------------------------------------------------------------------------------------------------------------------------
+class Simulation {
+    ClockMode clockMode;
+    long currentTime;                      //Virtual clock in MILLISECONDS since the beginning of the simulation
+    long doorDwellTime;                    //How many time the door remains opened in MILLISECONDS
+    long floorTravelTime;                  //How many time the elevator takes to go from one floor to the next in MILLISECONDS
+    long sensorWaitTime;                   //How many time the elevator waits before checking a sensor again in MILLISECONDS
+    long sequence;                         //Keeps the events scheduled for the same time in the order they were scheduled
+    long wallClockOrigin;                  //System.nanoTime() when the clock was at 0, used in WALL_CLOCK mode
+    PriorityQueue<SimulationEvent> eventsQueue; //Only used by the simulation thread, other threads use the inbox
+    Queue<Runnable> inbox;                 //Actions submitted from any thread, run by the simulation thread as soon as possible
+    volatile Thread simulationThread;
+    volatile boolean isStarted;
+
+    //----------------- Constructor and its attributes -----------------//
+    public Simulation(ClockMode clockMode) {
+        this.clockMode = clockMode;
+        this.currentTime = 0;
+        this.doorDwellTime = 1000;
+        this.floorTravelTime = 1500;
+        this.sensorWaitTime = 1000;
+        this.sequence = 0;
+        this.wallClockOrigin = System.nanoTime();
+        this.eventsQueue = new PriorityQueue<>();
+        this.inbox = new ConcurrentLinkedQueue<>();
+    }
+
+
+    //----------------- Method toString -----------------//
+    /* ******* GET A STRING REPRESENTATION OF SIMULATION OBJECT ******* */
+    @Override
+    public String toString() {
+        return "simulation | Clock: " + this.clockMode + " | Time: " + this.currentTime + "ms | Pending events: " + this.eventsQueue.size();
+    }
+
+
+    //----------------- Methods for logic -----------------//
+    /* ******* SCHEDULE AN ACTION TO RUN AFTER A DELAY IN MILLISECONDS ******* */
+    public void schedule(long delay, Runnable action) {
+        this.eventsQueue.add(new SimulationEvent(this.currentTime + delay, this.sequence++, action));
+    }
+
+    /* ******* RUN THE SUBMITTED ACTIONS AND THE NEXT EVENT OF THE QUEUE, RETURNS false WHEN THERE IS NO EVENT LEFT ******* */
+    public boolean runNextEvent() {
+        this.runInbox();
+        SimulationEvent event = this.eventsQueue.poll();
+        if (event == null) {
+            return false;
+        }
+        this.advanceClock(event.time);
+        event.action.run();
+        return true;
+    }
+
+    /* ******* RUN ALL THE EVENTS UNTIL EVERY ELEVATOR IS STOPPED ******* */
+    public void run() {
+        while (this.runNextEvent() || !this.inbox.isEmpty()) {
+            //every event may schedule new events
+        }
+    }
+
+    /* ******* RUN ALL THE EVENTS SCHEDULED UNTIL THE GIVEN TIME AND MOVE THE CLOCK TO THIS TIME ******* */
+    public void runUntil(long time) {
+        this.runInbox();
+        while (this.eventsQueue.size() > 0 && this.eventsQueue.peek().time <= time) {
+            this.runNextEvent();
+        }
+        this.advanceClock(time);
+    }
+
+    /* ******* MOVE THE CLOCK TO A RESTORED TIME, IN WALL_CLOCK MODE THE REAL TIME CONTINUES FROM THIS TIME ******* */
+    public void restoreClock(long time) {
+        this.currentTime = time;
+        this.wallClockOrigin = System.nanoTime() - time * 1_000_000;
+    }
+
+    /* ******* LOGIC TO MOVE THE CLOCK, IN WALL_CLOCK MODE IT WAITS FOR THE REAL TIME TO PASS ******* */
+    private void advanceClock(long time) {
+        if (time <= this.currentTime) {
+            return;
+        }
+        long waitingTime = time - this.wallClockTime();
+        if (this.clockMode == ClockMode.WALL_CLOCK && waitingTime > 0) {
+            try {
+                Thread.sleep(waitingTime);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        this.currentTime = time;
+    }
+
+    /* ******* GET THE REAL TIME IN MILLISECONDS SINCE THE CLOCK WAS AT 0 ******* */
+    private long wallClockTime() {
+        return (System.nanoTime() - this.wallClockOrigin) / 1_000_000;
+    }
+
+    /* ******* LOGIC TO RUN THE ACTIONS SUBMITTED BY OTHER THREADS ******* */
+    private void runInbox() {
+        Runnable action;
+        while ((action = this.inbox.poll()) != null) {
+            if (this.clockMode == ClockMode.WALL_CLOCK) {
+                this.currentTime = Math.max(this.currentTime, this.wallClockTime());
+            }
+            try {
+                action.run();
+            } catch (RuntimeException e) { //the thread keeps running the other actions of the column
+                e.printStackTrace();
+            }
+        }
+    }
+
+
+    //----------------- Methods for the simulation thread -----------------//
+    /* ******* SUBMIT AN ACTION FROM ANY THREAD, IT RUNS ON THE SIMULATION THREAD AT THE CURRENT TIME ******* */
+    public void submit(Runnable action) {
+        this.inbox.add(action);
+        Thread thread = this.simulationThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /* ******* START RUNNING THE EVENTS ON A DEDICATED THREAD ******* */
+    public void start(String threadName) {
+        this.isStarted = true;
+        this.simulationThread = new Thread(this::runLoop, threadName);
+        this.simulationThread.setDaemon(true);
+        this.simulationThread.start();
+    }
+
+    /* ******* STOP THE SIMULATION THREAD, THE EVENTS NOT RUN YET STAY IN THE QUEUE ******* */
+    public void stop() {
+        Thread thread = this.simulationThread;
+        this.isStarted = false;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            this.simulationThread = null;
+        }
+    }
+
+    /* ******* LOGIC OF THE SIMULATION THREAD: RUN THE EVENTS WHEN THEY ARE DUE, SLEEP WHEN THERE IS NOTHING TO DO ******* */
+    private void runLoop() {
+        while (this.isStarted) {
+            this.runInbox();
+            SimulationEvent nextEvent = this.eventsQueue.peek();
+            if (nextEvent == null) {
+                LockSupport.park(this); //woken up by submit() or stop()
+            } else if (this.clockMode == ClockMode.WALL_CLOCK && nextEvent.time > this.wallClockTime()) {
+                LockSupport.parkNanos(this, (nextEvent.time - this.wallClockTime()) * 1_000_000);
+            } else {
+                this.eventsQueue.poll();
+                this.currentTime = Math.max(this.currentTime, nextEvent.time);
+                try {
+                    nextEvent.action.run();
+                } catch (RuntimeException e) { //the thread keeps running the other events of the column
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+}
+
+/* ******* EVENT SCHEDULED ON THE SIMULATION ******* */
+class SimulationEvent implements Comparable<SimulationEvent> {
+    long time;
+    long sequence;
+    Runnable action;
+
+    public SimulationEvent(long time, long sequence, Runnable action) {
+        this.time = time;
+        this.sequence = sequence;
+        this.action = action;
+    }
+
+    @Override
+    public int compareTo(SimulationEvent other) {
+        if (this.time != other.time) {
+            return Long.compare(this.time, other.time);
+        }
+        return Long.compare(this.sequence, other.sequence);
     }
 }
 
@@ -712,6 +3753,628 @@ enum Direction {
     DOWN
 }
 
+/* ******* SENSORS OF THE ELEVATORS ******* */
+enum Sensor {
+    WEIGHT,
+    OBSTRUCTION
+}
+
+/* ******* TYPES OF THE EVENTS SENT TO AN EVENT SINK ******* */
+enum ElevatorEventType {
+    CALL_ASSIGNED,
+    CAR_MOVED,
+    DOORS_OPENED,
+    DOORS_CLOSED,
+    SENSOR_CHECKED,
+    HALL_CALL_REQUESTED,                   //Not sent by an elevator, the elevator id of the record is 0
+    FLOOR_REQUESTED,
+    STOP_ADDED,
+    STOP_REMOVED                           //The call of the stop was reassigned to another elevator
+}
+
+/* ******* TRAFFIC PROFILES OF THE LOAD TEST ******* */
+enum TrafficProfile {
+    UP_PEAK,                               //Morning: most passengers go from the lobby to their floor
+    DOWN_PEAK,                             //Evening: most passengers go from their floor to the lobby
+    LUNCH,                                 //As many passengers go up from the lobby as down to it
+    INTER_FLOOR                            //Passengers go from one floor to another floor of the same column
+}
+
+/* ******* SIMULATION CLOCK MODE ******* */
+enum ClockMode {
+    VIRTUAL,
+    WALL_CLOCK
+}
+
+
+//------------------------------------------- LOAD TEST PROGRAM -------------------------------------------------------------------
+//---------------------------------------------------------------------------------------------------------------------------------
+/* ******* TRIP OF ONE PASSENGER, ARRIVING AT A FLOOR AT A GIVEN TIME IN MILLISECONDS ******* */
+class Trip {
+    long arrivalTime;
+    int fromFloor;
+    int destinationFloor;
+
+    public Trip(long arrivalTime, int fromFloor, int destinationFloor) {
+        this.arrivalTime = arrivalTime;
+        this.fromFloor = fromFloor;
+        this.destinationFloor = destinationFloor;
+    }
+}
+
+/* ******* RELATIVE DEMAND OF EACH FLOOR OTHER THAN THE LOBBY (TRIPS FROM OR TO THE FLOOR), EXPECTED OR MEASURED ******* */
+class FloorDemand {
+    int minFloor;                          //Floor of weightsArray[0]
+    double[] weightsArray;                 //Weight of each floor, at index (floor - minFloor), the weight of the lobby is not used
+    double[] cumulativeArray;              //Sum of the weights up to each floor, to draw a floor with a binary search
+
+    //----------------- Constructor and its attributes -----------------//
+    public FloorDemand(int minFloor, double[] weightsArray) {
+        this.minFloor = minFloor;
+        this.weightsArray = weightsArray.clone();
+        if (1 - minFloor >= 0 && 1 - minFloor < weightsArray.length) {
+            this.weightsArray[1 - minFloor] = 0; //the lobby is the other end of the trips
+        }
+        this.cumulativeArray = new double[weightsArray.length];
+        double total = 0;
+        for (int i = 0; i < this.weightsArray.length; i++) {
+            if (this.weightsArray[i] < 0) {
+                throw new IllegalArgumentException("The demand of the floor " + (minFloor + i) + " is negative");
+            }
+            total += this.weightsArray[i];
+            this.cumulativeArray[i] = total;
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("There is no demand on any floor");
+        }
+    }
+
+
+    //----------------- Methods for logic -----------------//
+    /* ******* MEASURE THE DEMAND OF A LIST OF TRIPS, EACH TRIP COUNTS FOR ITS FLOORS OTHER THAN THE LOBBY ******* */
+    public static FloorDemand measure(int minFloor, int maxFloor, List<Trip> tripsList) {
+        double[] weightsArray = new double[maxFloor - minFloor + 1];
+        for (Trip trip : tripsList) {
+            weightsArray[trip.fromFloor - minFloor]++;
+            weightsArray[trip.destinationFloor - minFloor]++;
+        }
+        return new FloorDemand(minFloor, weightsArray);
+    }
+
+    public int maxFloor() {
+        return this.minFloor + this.weightsArray.length - 1;
+    }
+
+    public double weight(int floor) {
+        int index = floor - this.minFloor;
+        return index < 0 || index >= this.weightsArray.length ? 0 : this.weightsArray[index];
+    }
+
+    /* ******* DRAW A FLOOR, EACH FLOOR WITH A PROBABILITY PROPORTIONAL TO ITS WEIGHT ******* */
+    public int sample(Random random) {
+        double draw = random.nextDouble() * this.cumulativeArray[this.cumulativeArray.length - 1];
+        int index = Arrays.binarySearch(this.cumulativeArray, draw);
+        index = index < 0 ? -index - 1 : index + 1; //the first floor whose cumulative weight is above the draw
+        return this.minFloor + Math.min(index, this.cumulativeArray.length - 1);
+    }
+}
+
+/* ******* CREATES THE TRIPS OF A TRAFFIC PROFILE, THE PASSENGERS ARRIVE FOLLOWING A POISSON PROCESS ******* */
+/* ******* THE SAME SEED ALWAYS GIVES THE SAME TRIPS, SO TWO DISPATCH STRATEGIES CAN BE COMPARED ON THE SAME TRAFFIC ******* */
+/* ******* THE ZONES OF THE COLUMNS DO NOT CHANGE THE DRAWS: TWO ZONINGS GET THE SAME ARRIVALS AND FLOORS, ONLY THE DESTINATION ******* */
+/* ******* OF AN INTER-FLOOR TRIP IS PLACED IN THE COLUMN OF ITS FLOOR (THE SAME DRAW, FROM ITS OWN GENERATOR) ******* */
+class TrafficGenerator {
+    Battery battery;
+    Random random;
+    Random destinationRandom;              //Destinations of the inter-floor trips, one draw per trip whatever the zones
+    FloorDemand floorDemand;               //Demand of the floors, null when every floor has the same demand
+
+    //----------------- Constructor and its attributes -----------------//
+    public TrafficGenerator(Battery battery, long seed) {
+        this(battery, seed, null);
+    }
+
+    public TrafficGenerator(Battery battery, long seed, FloorDemand floorDemand) {
+        this.battery = battery;
+        this.random = new Random(seed);
+        this.destinationRandom = new Random(~seed);
+        this.floorDemand = floorDemand;
+    }
+
+
+    //----------------- Methods for logic -----------------//
+    /* ******* CREATE THE TRIPS OF THE PASSENGERS ARRIVING DURING THE DURATION (MILLISECONDS), SORTED BY ARRIVAL TIME ******* */
+    public List<Trip> generate(TrafficProfile profile, double callsPerHour, long duration) {
+        List<Trip> tripsList = new ArrayList<>();
+        double meanInterval = 3_600_000 / callsPerHour; //Mean time between two arrivals in MILLISECONDS
+        double time = -meanInterval * Math.log(1 - this.random.nextDouble());
+        while (time < duration) {
+            tripsList.add(this.createTrip(profile, (long) time));
+            time += -meanInterval * Math.log(1 - this.random.nextDouble()); //Exponential time between the arrivals of a Poisson process
+        }
+        return tripsList;
+    }
+
+    /* ******* CREATE ONE TRIP, THE SHARE OF UP, DOWN AND INTER-FLOOR TRIPS DEPENDS ON THE PROFILE ******* */
+    private Trip createTrip(TrafficProfile profile, long arrivalTime) {
+        double draw = this.random.nextDouble();
+        int floor = this.randomServedFloor();
+        switch (profile) {
+            case UP_PEAK:
+                return draw < 0.9 ? new Trip(arrivalTime, 1, floor) : this.createInterFloorTrip(arrivalTime, floor);
+            case DOWN_PEAK:
+                return draw < 0.9 ? new Trip(arrivalTime, floor, 1) : this.createInterFloorTrip(arrivalTime, floor);
+            case LUNCH:
+                if (draw < 0.45) {
+                    return new Trip(arrivalTime, 1, floor);
+                }
+                return draw < 0.9 ? new Trip(arrivalTime, floor, 1) : this.createInterFloorTrip(arrivalTime, floor);
+            default:
+                return this.createInterFloorTrip(arrivalTime, floor);
+        }
+    }
+
+    /* ******* CREATE A TRIP TO ANOTHER FLOOR OF THE SAME COLUMN, OR TO THE LOBBY IF THE COLUMN HAS NO OTHER FLOOR ******* */
+    private Trip createInterFloorTrip(long arrivalTime, int fromFloor) {
+        Column column = this.battery.findColumn(fromFloor, 1);
+        double draw = this.destinationRandom.nextDouble(); //drawn even for a column of one floor, so every zoning uses the same draws
+        if (column.maxFloor == column.minFloor) {
+            return new Trip(arrivalTime, fromFloor, 1);
+        }
+        int destinationFloor = column.minFloor + (int) (draw * (column.maxFloor - column.minFloor)); //one of the other floors of the column
+        return new Trip(arrivalTime, fromFloor, destinationFloor >= fromFloor ? destinationFloor + 1 : destinationFloor);
+    }
+
+    /* ******* LOGIC TO FIND A RANDOM FLOOR OTHER THAN THE LOBBY SERVED BY A COLUMN, FOLLOWING THE FLOOR DEMAND IF THERE IS ONE ******* */
+    private int randomServedFloor() {
+        int floor;
+        do {
+            floor = this.floorDemand != null ? this.floorDemand.sample(this.random) : this.battery.minBuildingFloor + this.random.nextInt(this.battery.columnsIndex.length);
+        } while (floor == 1 || floor < this.battery.minBuildingFloor || floor > this.battery.maxBuildingFloor || this.battery.columnsIndex[floor - this.battery.minBuildingFloor] == null);
+        return floor;
+    }
+}
+
+/* ******* LOAD TEST: FEEDS A BATTERY WITH THE TRIPS OF A TRAFFIC PROFILE ON THE VIRTUAL CLOCK AND MEASURES THE PASSENGERS ******* */
+/* ******* WAIT TIME = FROM THE HALL CALL TO THE DOORS OPENING AT THE FLOOR, JOURNEY TIME = FROM THE HALL CALL TO THE DESTINATION ******* */
+class LoadTest {
+    Battery battery;
+    LatencyHistogram waitHistogram;
+    LatencyHistogram journeyHistogram;
+    int numberOfTrips;
+    int failedTrips;
+
+    //----------------- Constructor and its attributes -----------------//
+    public LoadTest(Battery battery) {
+        this.battery = battery;
+        this.battery.eventSink = new NoOpEventSink();
+        this.waitHistogram = new LatencyHistogram();
+        this.journeyHistogram = new LatencyHistogram();
+    }
+
+
+    //----------------- Methods for logic -----------------//
+    /* ******* SCHEDULE THE ARRIVAL OF EVERY PASSENGER, THEN RUN THE COLUMNS UNTIL THEY ARE IDLE ******* */
+    public void run(List<Trip> tripsList) {
+        this.schedule(tripsList);
+        this.battery.run();
+    }
+
+    /* ******* SCHEDULE THE ARRIVAL OF EVERY PASSENGER ON THE SIMULATION OF ITS COLUMN ******* */
+    public void schedule(List<Trip> tripsList) {
+        this.numberOfTrips += tripsList.size();
+        for (Trip trip : tripsList) {
+            Column column = this.battery.findColumn(trip.fromFloor, trip.destinationFloor);
+            column.simulation.schedule(trip.arrivalTime - column.simulation.currentTime, () -> this.startTrip(column, trip));
+        }
+    }
+
+    /* ******* THE PASSENGER CALLS AN ELEVATOR, THEN REQUESTS ITS FLOOR WHEN THE DOORS OPEN (RUNS ON THE THREAD OF THE COLUMN) ******* */
+    private void startTrip(Column column, Trip trip) {
+        Simulation simulation = column.simulation;
+        long callTime = simulation.currentTime;
+        Direction direction = trip.destinationFloor > trip.fromFloor ? Direction.UP : Direction.DOWN;
+        column.requestElevator(trip.fromFloor, direction).thenCompose(elevator -> {
+            this.waitHistogram.record(simulation.currentTime - callTime);
+            return elevator.requestFloor(trip.destinationFloor);
+        }).whenComplete((elevator, error) -> {
+            if (error != null) {
+                this.failedTrips++;
+            } else {
+                this.journeyHistogram.record(simulation.currentTime - callTime);
+            }
+        });
+    }
+
+    /* ******* LOGIC TO FIND THE LAST TIME OF THE VIRTUAL CLOCKS OF THE COLUMNS, WHEN THE LAST PASSENGER ARRIVED ******* */
+    public long simulatedTime() {
+        long simulatedTime = 0;
+        for (Column column : this.battery.columnsList) {
+            simulatedTime = Math.max(simulatedTime, column.simulation.currentTime);
+        }
+        return simulatedTime;
+    }
+
+    public double callsPerSimulatedHour() {
+        long simulatedTime = this.simulatedTime();
+        return simulatedTime == 0 ? 0 : this.journeyHistogram.count() * 3_600_000.0 / simulatedTime;
+    }
+
+    /* ******* GET THE RESULT OF THE LOAD TEST, THE HISTOGRAMS ARE SUMMARIZED IN PERCENTILES ******* */
+    public LoadTestResult getResult(String name) {
+        return new LoadTestResult(name, this);
+    }
+
+    /* ******* PRINT ONE LINE OF THE REPORT, THE DURATIONS ARE IN SECONDS ******* */
+    public void printReport(String name) {
+        System.out.println(this.getResult(name));
+    }
+
+    /* ******* RUN ONE SIMULATED HOUR OF EVERY PROFILE WITH EVERY DISPATCH STRATEGY, ON THE SAME TRAFFIC FOR BOTH STRATEGIES ******* */
+    /* ******* THEN WITH THE DEFAULT STRATEGY AND THE PARKING ON, THE HOUR STARTS AT 8AM ******* */
+    public static void runAll(double callsPerHour) {
+        System.out.println(LoadTestResult.header("Profile / strategy"));
+        for (TrafficProfile profile : TrafficProfile.values()) {
+            for (DispatchStrategy dispatchStrategy : new DispatchStrategy[]{new PriorityDispatchStrategy(), new EtaDispatchStrategy()}) {
+                Battery battery = new Battery(1, 4, 66, 6, 5, BatteryStatus.ACTIVE);
+                battery.setDispatchStrategy(dispatchStrategy);
+                battery.setSensorSeed(42);
+                LoadTest loadTest = new LoadTest(battery);
+                loadTest.run(new TrafficGenerator(battery, 42).generate(profile, callsPerHour, 3_600_000));
+                loadTest.printReport(profile + " / " + dispatchStrategy.getClass().getSimpleName().replace("DispatchStrategy", ""));
+            }
+            Battery battery = new Battery(1, 4, 66, 6, 5, BatteryStatus.ACTIVE);
+            battery.setSensorSeed(42);
+            battery.enableParking(LocalTime.of(8, 0));
+            LoadTest loadTest = new LoadTest(battery);
+            loadTest.run(new TrafficGenerator(battery, 42).generate(profile, callsPerHour, 3_600_000));
+            loadTest.printReport(profile + " / Priority + parking");
+        }
+    }
+}
+
+
+/* ******* IMMUTABLE RESULT OF A LOAD TEST, THE DURATIONS ARE IN MILLISECONDS ******* */
+class LoadTestResult {
+    final String name;
+    final int numberOfTrips;
+    final int failedTrips;
+    final double callsPerHour;
+    final long[] waitArray;                //p50, p95, p99, max
+    final long waitMean;
+    final long[] journeyArray;             //p50, p95, p99, max
+
+    public LoadTestResult(String name, LoadTest loadTest) {
+        this.name = name;
+        this.numberOfTrips = loadTest.numberOfTrips;
+        this.failedTrips = loadTest.failedTrips;
+        this.callsPerHour = loadTest.callsPerSimulatedHour();
+        this.waitArray = summarize(loadTest.waitHistogram);
+        this.waitMean = loadTest.waitHistogram.mean();
+        this.journeyArray = summarize(loadTest.journeyHistogram);
+    }
+
+    /* ******* SAME RESULT WITH ANOTHER NAME ******* */
+    public LoadTestResult(String name, LoadTestResult result) {
+        this.name = name;
+        this.numberOfTrips = result.numberOfTrips;
+        this.failedTrips = result.failedTrips;
+        this.callsPerHour = result.callsPerHour;
+        this.waitArray = result.waitArray;
+        this.waitMean = result.waitMean;
+        this.journeyArray = result.journeyArray;
+    }
+
+    private static long[] summarize(LatencyHistogram histogram) {
+        return new long[]{histogram.percentile(50), histogram.percentile(95), histogram.percentile(99), histogram.max()};
+    }
+
+    public static String header(String nameTitle) {
+        return String.format("%-44s %6s %6s %9s | %-27s | %-27s", nameTitle, "Trips", "Failed", "Calls/h", "Wait (s) p50 p95 p99 max", "Journey (s) p50 p95 p99 max");
+    }
+
+    /* ******* ONE LINE OF THE REPORT, THE DURATIONS ARE SHOWN IN SECONDS ******* */
+    @Override
+    public String toString() {
+        return String.format("%-44s %6d %6d %9.1f | %6.1f %6.1f %6.1f %6.1f | %6.1f %6.1f %6.1f %6.1f", this.name, this.numberOfTrips, this.failedTrips, this.callsPerHour,
+                this.waitArray[0] / 1000.0, this.waitArray[1] / 1000.0, this.waitArray[2] / 1000.0, this.waitArray[3] / 1000.0,
+                this.journeyArray[0] / 1000.0, this.journeyArray[1] / 1000.0, this.journeyArray[2] / 1000.0, this.journeyArray[3] / 1000.0);
+    }
+}
+
+/* ******* ARGUMENTS OF THE BATTERY CONSTRUCTOR FOR ONE BUILDING OF A PARAMETER SWEEP ******* */
+class BuildingConfiguration {
+    final int numberOfColumns;
+    final int totalNumberOfFloors;
+    final int numberOfBasements;
+    final int numberOfElevatorsPerColumn;
+    final int[] zoneMaxFloors;             //Zones of the columns above the lobby, null when the floors are split evenly
+
+    public BuildingConfiguration(int numberOfColumns, int totalNumberOfFloors, int numberOfBasements, int numberOfElevatorsPerColumn) {
+        this(numberOfColumns, totalNumberOfFloors, numberOfBasements, numberOfElevatorsPerColumn, null);
+    }
+
+    public BuildingConfiguration(int numberOfColumns, int totalNumberOfFloors, int numberOfBasements, int numberOfElevatorsPerColumn, int[] zoneMaxFloors) {
+        this.numberOfColumns = numberOfColumns;
+        this.totalNumberOfFloors = totalNumberOfFloors;
+        this.numberOfBasements = numberOfBasements;
+        this.numberOfElevatorsPerColumn = numberOfElevatorsPerColumn;
+        this.zoneMaxFloors = zoneMaxFloors;
+    }
+
+    /* ******* BUILDER OF AN ACTIVE BATTERY ON THE VIRTUAL CLOCK FOR THE BUILDING ******* */
+    public BatteryBuilder builder() {
+        return new BatteryBuilder(1, this.numberOfColumns, this.totalNumberOfFloors, this.numberOfBasements, this.numberOfElevatorsPerColumn).withZones(this.zoneMaxFloors);
+    }
+
+    public Battery createBattery() {
+        return this.builder().build();
+    }
+
+    /* ******* SAME BUILDING WITH OTHER ZONES ******* */
+    public BuildingConfiguration withZones(int[] zoneMaxFloors) {
+        return new BuildingConfiguration(this.numberOfColumns, this.totalNumberOfFloors, this.numberOfBasements, this.numberOfElevatorsPerColumn, zoneMaxFloors);
+    }
+
+    /* ******* CREATE ALL THE COMBINATIONS OF THE GIVEN VALUES ******* */
+    public static List<BuildingConfiguration> grid(int[] columnsArray, int[] floorsArray, int[] basementsArray, int[] elevatorsArray) {
+        List<BuildingConfiguration> configurationsList = new ArrayList<>();
+        for (int numberOfColumns : columnsArray) {
+            for (int totalNumberOfFloors : floorsArray) {
+                for (int numberOfBasements : basementsArray) {
+                    for (int numberOfElevatorsPerColumn : elevatorsArray) {
+                        configurationsList.add(new BuildingConfiguration(numberOfColumns, totalNumberOfFloors, numberOfBasements, numberOfElevatorsPerColumn));
+                    }
+                }
+            }
+        }
+        return configurationsList;
+    }
+
+    @Override
+    public String toString() {
+        return this.totalNumberOfFloors + " floors, " + this.numberOfBasements + " SS, " + this.numberOfColumns + " x " + this.numberOfElevatorsPerColumn + " cars"
+                + (this.zoneMaxFloors == null ? "" : ", zones " + Arrays.toString(this.zoneMaxFloors));
+    }
+}
+
+/* ******* SIMULATES EVERY BUILDING CONFIGURATION WITH EVERY TRAFFIC PROFILE IN PARALLEL ON A ForkJoinPool ******* */
+/* ******* EACH RUN HAS ITS OWN BATTERY, TRAFFIC AND NoOpEventSink, SO THE RUNS SHARE NOTHING (NOT EVEN System.out) ******* */
+class SimulationRunner {
+    ForkJoinPool pool;
+    double callsPerHour;
+    long duration;                         //Simulated duration of the traffic in MILLISECONDS
+    long seed;
+    FloorDemand floorDemand;               //Demand of the floors of the traffic, null when every floor has the same demand
+
+    //----------------- Constructor and its attributes -----------------//
+    public SimulationRunner(int parallelism, double callsPerHour, long duration, long seed) {
+        this(parallelism, callsPerHour, duration, seed, null);
+    }
+
+    public SimulationRunner(int parallelism, double callsPerHour, long duration, long seed, FloorDemand floorDemand) {
+        this.pool = new ForkJoinPool(parallelism);
+        this.callsPerHour = callsPerHour;
+        this.duration = duration;
+        this.seed = seed;
+        this.floorDemand = floorDemand;
+    }
+
+
+    //----------------- Methods for logic -----------------//
+    /* ******* RUN ALL THE COMBINATIONS, THE RESULTS ARE IN THE ORDER OF THE CONFIGURATIONS, THEN OF THE PROFILES ******* */
+    public List<LoadTestResult> run(List<BuildingConfiguration> configurationsList, List<TrafficProfile> profilesList) {
+        List<ForkJoinTask<LoadTestResult>> tasksList = new ArrayList<>();
+        for (BuildingConfiguration configuration : configurationsList) {
+            for (TrafficProfile profile : profilesList) {
+                tasksList.add(ForkJoinTask.adapt(() -> this.simulate(configuration, profile)));
+            }
+        }
+        return this.pool.submit(() -> {
+            ForkJoinTask.invokeAll(tasksList);
+            return tasksList.stream().map(ForkJoinTask::join).collect(Collectors.toList());
+        }).join();
+    }
+
+    /* ******* SIMULATE ONE BUILDING WITH ONE PROFILE, ON THE THREAD OF THE POOL RUNNING THE TASK ******* */
+    private LoadTestResult simulate(BuildingConfiguration configuration, TrafficProfile profile) {
+        Battery battery = configuration.createBattery();
+        battery.setSensorSeed(this.seed);
+        LoadTest loadTest = new LoadTest(battery);
+        loadTest.run(new TrafficGenerator(battery, this.seed, this.floorDemand).generate(profile, this.callsPerHour, this.duration));
+        return loadTest.getResult(configuration + " / " + profile);
+    }
+
+    public void shutdown() {
+        this.pool.shutdown();
+    }
+
+    /* ******* PRINT ALL THE RESULTS, THEN FOR EACH PROFILE THE CONFIGURATION WITH THE LOWEST p95 WAIT TIME ******* */
+    public static void printReport(List<LoadTestResult> resultsList, List<TrafficProfile> profilesList) {
+        System.out.println(LoadTestResult.header("Configuration / profile"));
+        resultsList.forEach(System.out::println);
+        System.out.println();
+        System.out.println("Lowest p95 wait time by profile:");
+        for (int i = 0; i < profilesList.size(); i++) {
+            LoadTestResult bestResult = null;
+            for (int j = i; j < resultsList.size(); j += profilesList.size()) {
+                LoadTestResult result = resultsList.get(j);
+                if (bestResult == null || result.waitArray[1] < bestResult.waitArray[1]) {
+                    bestResult = result;
+                }
+            }
+            System.out.println(bestResult);
+        }
+    }
+
+    /* ******* RUN A SWEEP OF THE NUMBER OF COLUMNS AND ELEVATORS OF A 66 FLOORS BUILDING WITH ALL THE PROFILES ******* */
+    public static void runAll(int parallelism, double callsPerHour) {
+        List<BuildingConfiguration> configurationsList = BuildingConfiguration.grid(new int[]{3, 4, 5}, new int[]{66}, new int[]{6}, new int[]{3, 5, 8});
+        List<TrafficProfile> profilesList = Arrays.asList(TrafficProfile.values());
+        SimulationRunner runner = new SimulationRunner(parallelism, callsPerHour, 3_600_000, 42);
+        long startTime = System.nanoTime();
+        List<LoadTestResult> resultsList = runner.run(configurationsList, profilesList);
+        long elapsedTime = (System.nanoTime() - startTime) / 1_000_000;
+        runner.shutdown();
+        printReport(resultsList, profilesList);
+        System.out.println();
+        System.out.println(resultsList.size() + " simulations on " + parallelism + " threads in " + elapsedTime + "ms");
+    }
+}
+
+/* ******* SEARCHES THE ZONES OF THE COLUMNS ABOVE THE LOBBY (THEIR maxFloor) GIVING THE LOWEST WAIT FOR A FLOOR DEMAND ******* */
+/* ******* A ZONING IS SCORED BY SIMULATING EVERY PROFILE WITH THE DEMAND: MEAN WAIT + p95 WAIT, SUMMED OVER THE PROFILES ******* */
+/* ******* THE SEARCH STARTS FROM THE BEST OF THE EVEN ZONES AND OF THE ZONES WITH THE SAME DEMAND, THEN MOVES ONE BOUNDARY ******* */
+/* ******* AT A TIME BY A STEP, HALVING THE STEP WHEN NO MOVE IS BETTER; THE MOVES OF A ROUND ARE SIMULATED IN PARALLEL ******* */
+class ZoningOptimizer {
+    BuildingConfiguration building;
+    FloorDemand floorDemand;
+    List<TrafficProfile> profilesList;
+    SimulationRunner runner;
+    Map<List<Integer>, List<LoadTestResult>> resultsMap; //Results of the zonings already simulated, in the order of the profiles
+
+    //----------------- Constructor and its attributes -----------------//
+    public ZoningOptimizer(BuildingConfiguration building, FloorDemand floorDemand, List<TrafficProfile> profilesList, int parallelism, double callsPerHour, long duration, long seed) {
+        this.building = building;
+        this.floorDemand = floorDemand;
+        this.profilesList = profilesList;
+        this.runner = new SimulationRunner(parallelism, callsPerHour, duration, seed, floorDemand);
+        this.resultsMap = new HashMap<>();
+    }
+
+
+    //----------------- Methods for logic -----------------//
+    /* ******* ZONES OF THE BATTERY CONSTRUCTOR, THE FLOORS SPLIT EVENLY AND THE REMAINING ONES IN THE LAST COLUMN ******* */
+    public int[] evenZones() {
+        Battery battery = this.building.createBattery();
+        int firstColumn = this.building.builder().firstColumnAboveLobby(); //same columns as the ones laid out by the builder
+        int[] zoneMaxFloors = new int[battery.numberOfColumns - firstColumn];
+        for (int i = 0; i < zoneMaxFloors.length; i++) {
+            zoneMaxFloors[i] = Math.min(battery.columnsList.get(firstColumn + i).maxFloor, battery.numberOfFloors);
+        }
+        zoneMaxFloors[zoneMaxFloors.length - 1] = battery.numberOfFloors;
+        return zoneMaxFloors;
+    }
+
+    /* ******* ZONES WITH THE SAME DEMAND IN EACH COLUMN ******* */
+    public int[] balancedZones() {
+        int[] zoneMaxFloors = this.evenZones();
+        int numberOfFloors = zoneMaxFloors[zoneMaxFloors.length - 1];
+        double totalDemand = 0;
+        for (int floor = 2; floor <= numberOfFloors; floor++) {
+            totalDemand += this.floorDemand.weight(floor);
+        }
+        double demand = 0;
+        int zone = 0;
+        for (int floor = 2; floor < numberOfFloors && zone < zoneMaxFloors.length - 1; floor++) {
+            demand += this.floorDemand.weight(floor);
+            if (demand >= totalDemand * (zone + 1) / zoneMaxFloors.length) {
+                zoneMaxFloors[zone++] = floor;
+            }
+        }
+        for (int i = zoneMaxFloors.length - 2; i >= 0; i--) { //every column keeps at least one floor above the previous one
+            zoneMaxFloors[i] = Math.min(zoneMaxFloors[i], zoneMaxFloors[i + 1] - 1);
+        }
+        for (int i = 0; i < zoneMaxFloors.length - 1; i++) {
+            zoneMaxFloors[i] = Math.max(zoneMaxFloors[i], i == 0 ? 2 : zoneMaxFloors[i - 1] + 1);
+        }
+        return zoneMaxFloors;
+    }
+
+    /* ******* SEARCH THE BEST ZONES, RETURNS THE maxFloor OF EACH COLUMN ABOVE THE LOBBY ******* */
+    public int[] optimize() {
+        int[] evenZones = this.evenZones();
+        int[] bestZones = this.bestOf(Arrays.asList(evenZones, this.balancedZones()));
+        int step = Math.max(1, evenZones[evenZones.length - 1] / (4 * evenZones.length));
+        while (true) {
+            List<int[]> movesList = new ArrayList<>();
+            movesList.add(bestZones); //first in the list, so a move is kept only if its score is lower (a tie keeps the current zones)
+            for (int i = 0; i < bestZones.length - 1; i++) { //the last zone always ends at the last floor
+                for (int move : new int[]{-step, step}) {
+                    int[] zoneMaxFloors = bestZones.clone();
+                    zoneMaxFloors[i] += move;
+                    if (zoneMaxFloors[i] > (i == 0 ? 1 : zoneMaxFloors[i - 1]) && zoneMaxFloors[i] < zoneMaxFloors[i + 1]) {
+                        movesList.add(zoneMaxFloors);
+                    }
+                }
+            }
+            int[] zoneMaxFloors = this.bestOf(movesList);
+            if (zoneMaxFloors != bestZones) {
+                bestZones = zoneMaxFloors;
+            } else if (step > 1) {
+                step /= 2;
+            } else {
+                return bestZones;
+            }
+        }
+    }
+
+    /* ******* SIMULATE THE ZONINGS NOT SIMULATED YET IN PARALLEL, RETURNS THE ONE WITH THE LOWEST SCORE (THE FIRST ONE FOR A TIE) ******* */
+    private int[] bestOf(List<int[]> zoningsList) {
+        List<BuildingConfiguration> configurationsList = new ArrayList<>();
+        for (int[] zoneMaxFloors : zoningsList) {
+            if (!this.resultsMap.containsKey(key(zoneMaxFloors)) && configurationsList.stream().noneMatch(configuration -> Arrays.equals(configuration.zoneMaxFloors, zoneMaxFloors))) {
+                configurationsList.add(this.building.withZones(zoneMaxFloors));
+            }
+        }
+        List<LoadTestResult> resultsList = this.runner.run(configurationsList, this.profilesList);
+        for (int i = 0; i < configurationsList.size(); i++) {
+            this.resultsMap.put(key(configurationsList.get(i).zoneMaxFloors), resultsList.subList(i * this.profilesList.size(), (i + 1) * this.profilesList.size()));
+        }
+        int[] bestZones = zoningsList.get(0);
+        for (int[] zoneMaxFloors : zoningsList) {
+            if (this.score(zoneMaxFloors) < this.score(bestZones)) {
+                bestZones = zoneMaxFloors;
+            }
+        }
+        return bestZones;
+    }
+
+    /* ******* MEAN WAIT + p95 WAIT IN MILLISECONDS, SUMMED OVER THE PROFILES ******* */
+    public long score(int[] zoneMaxFloors) {
+        long score = 0;
+        for (LoadTestResult result : this.getResults(zoneMaxFloors)) {
+            score += result.waitMean + result.waitArray[1];
+        }
+        return score;
+    }
+
+    public List<LoadTestResult> getResults(int[] zoneMaxFloors) {
+        return this.resultsMap.get(key(zoneMaxFloors));
+    }
+
+    private static List<Integer> key(int[] zoneMaxFloors) {
+        return Arrays.stream(zoneMaxFloors).boxed().collect(Collectors.toList());
+    }
+
+    public void shutdown() {
+        this.runner.shutdown();
+    }
+
+    /* ******* OPTIMIZE THE ZONES OF A 66 FLOORS BUILDING WHERE A LARGE TENANT FILLS THE FLOORS 2 TO 12 ******* */
+    public static void runAll(int parallelism, double callsPerHour) {
+        BuildingConfiguration building = new BuildingConfiguration(4, 66, 6, 5);
+        double[] weightsArray = new double[66 + 1];  //floors -6 to 60
+        for (int floor = -6; floor <= 60; floor++) {
+            weightsArray[floor + 6] = floor >= 2 && floor <= 12 ? 6 : 1;
+        }
+        ZoningOptimizer optimizer = new ZoningOptimizer(building, new FloorDemand(-6, weightsArray), Arrays.asList(TrafficProfile.values()), parallelism, callsPerHour, 3_600_000, 42);
+        long startTime = System.nanoTime();
+        int[] bestZones = optimizer.optimize();
+        long elapsedTime = (System.nanoTime() - startTime) / 1_000_000;
+        optimizer.shutdown();
+        System.out.println(LoadTestResult.header("Zones / profile"));
+        for (int[] zoneMaxFloors : Arrays.asList(optimizer.evenZones(), optimizer.balancedZones(), bestZones)) {
+            List<LoadTestResult> resultsList = optimizer.getResults(zoneMaxFloors);
+            for (int i = 0; i < resultsList.size(); i++) {
+                System.out.println(new LoadTestResult(Arrays.toString(zoneMaxFloors) + " / " + optimizer.profilesList.get(i), resultsList.get(i)));
+            }
+            System.out.printf("Score (mean + p95 wait, all profiles): %.1fs%n%n", optimizer.score(zoneMaxFloors) / 1000.0);
+        }
+        System.out.println(optimizer.resultsMap.size() + " zonings simulated with " + optimizer.profilesList.size() + " profiles on " + parallelism + " threads in " + elapsedTime + "ms");
+    }
+}
+
 
 //------------------------------------------- TESTING PROGRAM - SCENARIOS ---------------------------------------------------------
 //---------------------------------------------------------------------------------------------------------------------------------
@@ -726,28 +4389,28 @@ public class Commercial_Controller {
         batteryScenario1.columnsList.forEach(System.out::println); //batteryScenario1.columnsList.forEach(column -> System.out.println(column));
         System.out.println();
         //--------- ElevatorB1 ---------
-        batteryScenario1.columnsList.get(1).elevatorsList.get(0).floor = 20;
-        batteryScenario1.columnsList.get(1).elevatorsList.get(0).status = ElevatorStatus.DOWN;
+        batteryScenario1.columnsList.get(1).elevatorsList.get(0).setFloor(20);
+        batteryScenario1.columnsList.get(1).elevatorsList.get(0).setStatus(ElevatorStatus.DOWN);
         batteryScenario1.columnsList.get(1).elevatorsList.get(0).addFloorToFloorList(5);
 
         //--------- ElevatorB2 ---------
-        batteryScenario1.columnsList.get(1).elevatorsList.get(1).floor = 3;
-        batteryScenario1.columnsList.get(1).elevatorsList.get(1).status = ElevatorStatus.UP;
+        batteryScenario1.columnsList.get(1).elevatorsList.get(1).setFloor(3);
+        batteryScenario1.columnsList.get(1).elevatorsList.get(1).setStatus(ElevatorStatus.UP);
         batteryScenario1.columnsList.get(1).elevatorsList.get(1).addFloorToFloorList(15);
 
         //--------- ElevatorB3 ---------
-        batteryScenario1.columnsList.get(1).elevatorsList.get(2).floor = 13;
-        batteryScenario1.columnsList.get(1).elevatorsList.get(2).status = ElevatorStatus.DOWN;
+        batteryScenario1.columnsList.get(1).elevatorsList.get(2).setFloor(13);
+        batteryScenario1.columnsList.get(1).elevatorsList.get(2).setStatus(ElevatorStatus.DOWN);
         batteryScenario1.columnsList.get(1).elevatorsList.get(2).addFloorToFloorList(1);
 
         //--------- ElevatorB4 ---------
-        batteryScenario1.columnsList.get(1).elevatorsList.get(3).floor = 15;
-        batteryScenario1.columnsList.get(1).elevatorsList.get(3).status = ElevatorStatus.DOWN;
+        batteryScenario1.columnsList.get(1).elevatorsList.get(3).setFloor(15);
+        batteryScenario1.columnsList.get(1).elevatorsList.get(3).setStatus(ElevatorStatus.DOWN);
         batteryScenario1.columnsList.get(1).elevatorsList.get(3).addFloorToFloorList(2);
 
         //--------- ElevatorB5 ---------
-        batteryScenario1.columnsList.get(1).elevatorsList.get(4).floor = 6;
-        batteryScenario1.columnsList.get(1).elevatorsList.get(4).status = ElevatorStatus.DOWN;
+        batteryScenario1.columnsList.get(1).elevatorsList.get(4).setFloor(6);
+        batteryScenario1.columnsList.get(1).elevatorsList.get(4).setStatus(ElevatorStatus.DOWN);
         batteryScenario1.columnsList.get(1).elevatorsList.get(4).addFloorToFloorList(1);
 
         batteryScenario1.columnsList.get(1).elevatorsList.forEach(System.out::println);
@@ -756,7 +4419,9 @@ public class Commercial_Controller {
         System.out.println(">> User request an elevator from floor <1> and direction <UP> <<");
         System.out.println(">> User request to go to floor <20>");
         batteryScenario1.columnsList.get(1).requestElevator(1, Direction.UP); //parameters (requestedFloor, buttonDirection.UP/DOWN)
+        batteryScenario1.run();
         batteryScenario1.columnsList.get(1).elevatorsList.get(4).requestFloor(20); //parameters (requestedFloor)
+        batteryScenario1.run();
         System.out.println("=========================================================================");
     }
 
@@ -769,28 +4434,28 @@ public class Commercial_Controller {
         batteryScenario2.columnsList.forEach(System.out::println);
         System.out.println();
         //--------- ElevatorC1 ---------
-        batteryScenario2.columnsList.get(2).elevatorsList.get(0).floor = 1;
-        batteryScenario2.columnsList.get(2).elevatorsList.get(0).status = ElevatorStatus.UP;
+        batteryScenario2.columnsList.get(2).elevatorsList.get(0).setFloor(1);
+        batteryScenario2.columnsList.get(2).elevatorsList.get(0).setStatus(ElevatorStatus.UP);
         batteryScenario2.columnsList.get(2).elevatorsList.get(0).addFloorToFloorList(21); //not departed yet
 
         //--------- ElevatorC2 ---------
-        batteryScenario2.columnsList.get(2).elevatorsList.get(1).floor = 23;
-        batteryScenario2.columnsList.get(2).elevatorsList.get(1).status = ElevatorStatus.UP;
+        batteryScenario2.columnsList.get(2).elevatorsList.get(1).setFloor(23);
+        batteryScenario2.columnsList.get(2).elevatorsList.get(1).setStatus(ElevatorStatus.UP);
         batteryScenario2.columnsList.get(2).elevatorsList.get(1).addFloorToFloorList(28);
 
         //--------- ElevatorC3 ---------
-        batteryScenario2.columnsList.get(2).elevatorsList.get(2).floor = 33;
-        batteryScenario2.columnsList.get(2).elevatorsList.get(2).status = ElevatorStatus.DOWN;
+        batteryScenario2.columnsList.get(2).elevatorsList.get(2).setFloor(33);
+        batteryScenario2.columnsList.get(2).elevatorsList.get(2).setStatus(ElevatorStatus.DOWN);
         batteryScenario2.columnsList.get(2).elevatorsList.get(2).addFloorToFloorList(1);
 
         //--------- ElevatorC4 ---------
-        batteryScenario2.columnsList.get(2).elevatorsList.get(3).floor = 40;
-        batteryScenario2.columnsList.get(2).elevatorsList.get(3).status = ElevatorStatus.DOWN;
+        batteryScenario2.columnsList.get(2).elevatorsList.get(3).setFloor(40);
+        batteryScenario2.columnsList.get(2).elevatorsList.get(3).setStatus(ElevatorStatus.DOWN);
         batteryScenario2.columnsList.get(2).elevatorsList.get(3).addFloorToFloorList(24);
 
         //--------- ElevatorC5 ---------
-        batteryScenario2.columnsList.get(2).elevatorsList.get(4).floor = 39;
-        batteryScenario2.columnsList.get(2).elevatorsList.get(4).status = ElevatorStatus.DOWN;
+        batteryScenario2.columnsList.get(2).elevatorsList.get(4).setFloor(39);
+        batteryScenario2.columnsList.get(2).elevatorsList.get(4).setStatus(ElevatorStatus.DOWN);
         batteryScenario2.columnsList.get(2).elevatorsList.get(4).addFloorToFloorList(1);
 
         batteryScenario2.columnsList.get(2).elevatorsList.forEach(System.out::println);
@@ -799,7 +4464,9 @@ public class Commercial_Controller {
         System.out.println(">> User request an elevator from floor <1> and direction <UP> <<");
         System.out.println(">> User request to go to floor <36>");
         batteryScenario2.columnsList.get(2).requestElevator(1, Direction.UP); //parameters (requestedFloor, buttonDirection.UP/DOWN)
+        batteryScenario2.run();
         batteryScenario2.columnsList.get(2).elevatorsList.get(0).requestFloor(36); //parameters (requestedFloor)
+        batteryScenario2.run();
         System.out.println("=========================================================================");
     }
 
@@ -812,28 +4479,28 @@ public class Commercial_Controller {
         batteryScenario3.columnsList.forEach(System.out::println);
         System.out.println();
         //--------- ElevatorD1 ---------
-        batteryScenario3.columnsList.get(3).elevatorsList.get(0).floor = 58;
-        batteryScenario3.columnsList.get(3).elevatorsList.get(0).status = ElevatorStatus.DOWN;
+        batteryScenario3.columnsList.get(3).elevatorsList.get(0).setFloor(58);
+        batteryScenario3.columnsList.get(3).elevatorsList.get(0).setStatus(ElevatorStatus.DOWN);
         batteryScenario3.columnsList.get(3).elevatorsList.get(0).addFloorToFloorList(1);
 
         //--------- ElevatorD2 ---------
-        batteryScenario3.columnsList.get(3).elevatorsList.get(1).floor = 50;
-        batteryScenario3.columnsList.get(3).elevatorsList.get(1).status = ElevatorStatus.UP;
+        batteryScenario3.columnsList.get(3).elevatorsList.get(1).setFloor(50);
+        batteryScenario3.columnsList.get(3).elevatorsList.get(1).setStatus(ElevatorStatus.UP);
         batteryScenario3.columnsList.get(3).elevatorsList.get(1).addFloorToFloorList(60);
 
         //--------- ElevatorD3 ---------
-        batteryScenario3.columnsList.get(3).elevatorsList.get(2).floor = 46;
-        batteryScenario3.columnsList.get(3).elevatorsList.get(2).status = ElevatorStatus.UP;
+        batteryScenario3.columnsList.get(3).elevatorsList.get(2).setFloor(46);
+        batteryScenario3.columnsList.get(3).elevatorsList.get(2).setStatus(ElevatorStatus.UP);
         batteryScenario3.columnsList.get(3).elevatorsList.get(2).addFloorToFloorList(58);
 
         //--------- ElevatorD4 ---------
-        batteryScenario3.columnsList.get(3).elevatorsList.get(3).floor = 1;
-        batteryScenario3.columnsList.get(3).elevatorsList.get(3).status = ElevatorStatus.UP;
+        batteryScenario3.columnsList.get(3).elevatorsList.get(3).setFloor(1);
+        batteryScenario3.columnsList.get(3).elevatorsList.get(3).setStatus(ElevatorStatus.UP);
         batteryScenario3.columnsList.get(3).elevatorsList.get(3).addFloorToFloorList(54);
 
         //--------- ElevatorD5 ---------
-        batteryScenario3.columnsList.get(3).elevatorsList.get(4).floor = 60;
-        batteryScenario3.columnsList.get(3).elevatorsList.get(4).status = ElevatorStatus.DOWN;
+        batteryScenario3.columnsList.get(3).elevatorsList.get(4).setFloor(60);
+        batteryScenario3.columnsList.get(3).elevatorsList.get(4).setStatus(ElevatorStatus.DOWN);
         batteryScenario3.columnsList.get(3).elevatorsList.get(4).addFloorToFloorList(1);
 
         batteryScenario3.columnsList.get(3).elevatorsList.forEach(System.out::println);
@@ -842,7 +4509,9 @@ public class Commercial_Controller {
         System.out.println(">> User request an elevator from floor <54> and direction <DOWN> <<");
         System.out.println(">> User request to go to floor <1>");
         batteryScenario3.columnsList.get(3).requestElevator(54, Direction.DOWN); //parameters (requestedFloor, buttonDirection.UP/DOWN)
+        batteryScenario3.run();
         batteryScenario3.columnsList.get(3).elevatorsList.get(0).requestFloor(1); //parameters (requestedFloor)
+        batteryScenario3.run();
         System.out.println("=========================================================================");
     }
 
@@ -855,26 +4524,26 @@ public class Commercial_Controller {
         batteryScenario4.columnsList.forEach(System.out::println);
         System.out.println();
         //--------- ElevatorA1 ---------
-        batteryScenario4.columnsList.get(0).elevatorsList.get(0).floor = -4; //use of negative numbers to indicate SS / basement
-        batteryScenario4.columnsList.get(0).elevatorsList.get(0).status = ElevatorStatus.IDLE;
+        batteryScenario4.columnsList.get(0).elevatorsList.get(0).setFloor(-4); //use of negative numbers to indicate SS / basement
+        batteryScenario4.columnsList.get(0).elevatorsList.get(0).setStatus(ElevatorStatus.IDLE);
 
         //--------- ElevatorA2 ---------
-        batteryScenario4.columnsList.get(0).elevatorsList.get(1).floor = 1;
-        batteryScenario4.columnsList.get(0).elevatorsList.get(1).status = ElevatorStatus.IDLE;
+        batteryScenario4.columnsList.get(0).elevatorsList.get(1).setFloor(1);
+        batteryScenario4.columnsList.get(0).elevatorsList.get(1).setStatus(ElevatorStatus.IDLE);
 
         //--------- ElevatorA3 ---------
-        batteryScenario4.columnsList.get(0).elevatorsList.get(2).floor = -3; //use of negative numbers to indicate SS / basement
-        batteryScenario4.columnsList.get(0).elevatorsList.get(2).status = ElevatorStatus.DOWN;
+        batteryScenario4.columnsList.get(0).elevatorsList.get(2).setFloor(-3); //use of negative numbers to indicate SS / basement
+        batteryScenario4.columnsList.get(0).elevatorsList.get(2).setStatus(ElevatorStatus.DOWN);
         batteryScenario4.columnsList.get(0).elevatorsList.get(2).addFloorToFloorList(-5);
 
         //--------- ElevatorA4 ---------
-        batteryScenario4.columnsList.get(0).elevatorsList.get(3).floor = -6; //use of negative numbers to indicate SS / basement
-        batteryScenario4.columnsList.get(0).elevatorsList.get(3).status = ElevatorStatus.UP;
+        batteryScenario4.columnsList.get(0).elevatorsList.get(3).setFloor(-6); //use of negative numbers to indicate SS / basement
+        batteryScenario4.columnsList.get(0).elevatorsList.get(3).setStatus(ElevatorStatus.UP);
         batteryScenario4.columnsList.get(0).elevatorsList.get(3).addFloorToFloorList(1);
 
         //--------- ElevatorA5 ---------
-        batteryScenario4.columnsList.get(0).elevatorsList.get(4).floor = -1; //use of negative numbers to indicate SS / basement
-        batteryScenario4.columnsList.get(0).elevatorsList.get(4).status = ElevatorStatus.DOWN;
+        batteryScenario4.columnsList.get(0).elevatorsList.get(4).setFloor(-1); //use of negative numbers to indicate SS / basement
+        batteryScenario4.columnsList.get(0).elevatorsList.get(4).setStatus(ElevatorStatus.DOWN);
         batteryScenario4.columnsList.get(0).elevatorsList.get(4).addFloorToFloorList(-6);
 
         batteryScenario4.columnsList.get(0).elevatorsList.forEach(System.out::println);
@@ -883,14 +4552,285 @@ public class Commercial_Controller {
         System.out.println(">> User request an elevator from floor <-3> (basement) and direction <UP> <<");
         System.out.println(">> User request to go to floor <1>");
         batteryScenario4.columnsList.get(0).requestElevator(-3, Direction.UP); //parameters (requestedFloor, buttonDirection.UP/DOWN)
+        batteryScenario4.run();
         batteryScenario4.columnsList.get(0).elevatorsList.get(3).requestFloor(1); //parameters (requestedFloor)
+        batteryScenario4.run();
+        System.out.println("=========================================================================");
+    }
+    
+
+    /* ******* CREATE CONCURRENT SCENARIO: MANY THREADS REQUEST ELEVATORS ON ALL THE COLUMNS AT THE SAME TIME ******* */
+    /* ******* EVERY PERSON MUST BE PICKED UP AND DROPPED OFF EXACTLY ONCE, AT THE GOOD FLOORS ******* */
+    public static boolean scenarioConcurrentRequests(int numberOfThreads, int requestsPerThread) throws InterruptedException {
+        System.out.println("\n****************************** CONCURRENT SCENARIO: ******************************\n");
+        Battery battery = new Battery(1, 4, 66, 6, 5, BatteryStatus.ACTIVE);
+        System.out.println(battery);
+        System.out.println(">> " + numberOfThreads + " threads send " + requestsPerThread + " requests each <<");
+
+        int numberOfRequests = numberOfThreads * requestsPerThread;
+        AtomicIntegerArray pickupsCount = new AtomicIntegerArray(numberOfRequests);  //Door openings for the pickup of each request
+        AtomicIntegerArray dropOffsCount = new AtomicIntegerArray(numberOfRequests); //Door openings for the drop off of each request
+        Map<CompletableFuture<Elevator>, Integer> tripsMap = new ConcurrentHashMap<>(); //request * 2 for a pickup, request * 2 + 1 for a drop off
+        AtomicInteger wrongFloorsCount = new AtomicInteger();
+        List<CompletableFuture<Elevator>> tripsList = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch startSignal = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+
+        battery.eventSink = new NoOpEventSink() { //counts every door opening for each request waiting at the floor, even an answered one
+            @Override
+            public void doorsOpened(Elevator elevator) {
+                List<CompletableFuture<Elevator>> arrivals = elevator.arrivalsMap.get(elevator.getFloor());
+                if (arrivals != null) {
+                    for (CompletableFuture<Elevator> arrival : arrivals) {
+                        Integer trip = tripsMap.get(arrival);
+                        if (trip != null) {
+                            (trip % 2 == 0 ? pickupsCount : dropOffsCount).incrementAndGet(trip / 2);
+                        }
+                    }
+                }
+            }
+        };
+        battery.start();
+        for (int t = 0; t < numberOfThreads; t++) {
+            final int thread = t;
+            executor.execute(() -> {
+                try {
+                    startSignal.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for (int i = 0; i < requestsPerThread; i++) {
+                    final int request = thread * requestsPerThread + i;
+                    Column column = battery.columnsList.get(random.nextInt(battery.columnsList.size()));
+                    int requestedFloor = random.nextInt(column.minFloor - 1, column.maxFloor + 1); //minFloor - 1 stands for the lobby
+                    requestedFloor = requestedFloor < column.minFloor ? 1 : requestedFloor;
+                    int destinationFloor = requestedFloor;
+                    while (destinationFloor == requestedFloor) {
+                        destinationFloor = random.nextInt(column.minFloor - 1, column.maxFloor + 1);
+                        destinationFloor = destinationFloor < column.minFloor ? 1 : destinationFloor;
+                    }
+                    final int pickupFloor = requestedFloor;
+                    final int dropOffFloor = destinationFloor;
+                    Direction direction = dropOffFloor > pickupFloor ? Direction.UP : Direction.DOWN;
+                    //the callbacks are added before the futures are given to the column, so they run on its thread when the doors open,
+                    //and the floor of the elevator is checked while it is still at the floor
+                    CompletableFuture<Elevator> pickup = new CompletableFuture<>();
+                    CompletableFuture<Elevator> dropOff = new CompletableFuture<>();
+                    tripsMap.put(pickup, request * 2);
+                    tripsMap.put(dropOff, request * 2 + 1);
+                    pickup.whenComplete((elevator, error) -> {
+                        if (error != null) {
+                            dropOff.completeExceptionally(error);
+                            return;
+                        }
+                        if (pickupsCount.get(request) == 0) { //the elevator was already at the floor, it did not open its doors again
+                            pickupsCount.incrementAndGet(request);
+                        }
+                        if (elevator.getFloor() != pickupFloor) {
+                            wrongFloorsCount.incrementAndGet();
+                        }
+                        elevator.post(dropOffFloor, dropOff, true); //same as elevator.requestFloor(dropOffFloor)
+                    });
+                    dropOff.whenComplete((elevator, error) -> {
+                        if (error == null && dropOffsCount.get(request) == 0) {
+                            dropOffsCount.incrementAndGet(request);
+                        }
+                        if (error != null || elevator.getFloor() != dropOffFloor) {
+                            wrongFloorsCount.incrementAndGet();
+                        }
+                    });
+                    tripsList.add(dropOff);
+                    column.requestElevator(pickupFloor, direction, null, pickup);
+                }
+            });
+        }
+        startSignal.countDown();
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+        try {
+            CompletableFuture.allOf(tripsList.toArray(new CompletableFuture<?>[0])).get(1, TimeUnit.MINUTES);
+        } catch (ExecutionException | TimeoutException e) {
+            //the trips not completed are counted as lost below
+        }
+
+        int lostCount = 0;
+        int servedTwiceCount = 0;
+        for (int i = 0; i < numberOfRequests; i++) {
+            if (pickupsCount.get(i) == 0 || dropOffsCount.get(i) == 0) {
+                lostCount++;
+            } else if (pickupsCount.get(i) != 1 || dropOffsCount.get(i) != 1) {
+                servedTwiceCount++;
+            }
+        }
+        int leftoversCount = 0; //stops, arrivals or buttons still waiting once every trip is over
+        for (Column column : battery.columnsList) {
+            try {
+                ColumnSnapshot snapshot = column.takeSnapshot().get(1, TimeUnit.MINUTES);
+                leftoversCount += snapshot.buttonsUpOn.size() + snapshot.buttonsDownOn.size();
+                for (ElevatorSnapshot elevator : snapshot.elevatorsList) {
+                    leftoversCount += elevator.stopsList.size() + elevator.pendingArrivals;
+                }
+            } catch (ExecutionException | TimeoutException e) {
+                leftoversCount++;
+            }
+        }
+        battery.stop();
+
+        boolean isPassed = tripsList.size() == numberOfRequests && lostCount == 0 && servedTwiceCount == 0 && wrongFloorsCount.get() == 0 && leftoversCount == 0;
+        System.out.println("Requests: " + tripsList.size() + " | Lost: " + lostCount + " | Served twice: " + servedTwiceCount + " | Wrong floors: " + wrongFloorsCount.get() + " | Leftovers: " + leftoversCount);
+        System.out.println(isPassed ? "CONCURRENT SCENARIO PASSED" : "CONCURRENT SCENARIO FAILED");
         System.out.println("=========================================================================");
+        return isPassed;
     }
     
 
     //------------------------------------------- TESTING PROGRAM - CALL SCENARIOS -----------------------------------------------------
     //----------------------------------------------------------------------------------------------------------------------------------
-    public static void main(String[] args) {
+    public static void main(String[] args) throws InterruptedException, IOException {
+        /* ******* CALL CONCURRENT SCENARIO: java Commercial_Controller stress ******* */
+        if (args.length > 0 && args[0].equals("stress")) {
+            boolean isPassed = scenarioConcurrentRequests(16, 500);
+            System.exit(isPassed ? 0 : 1);
+        }
+
+        /* ******* CALL LOAD TEST: java Commercial_Controller loadtest [callsPerHour] ******* */
+        if (args.length > 0 && args[0].equals("loadtest")) {
+            LoadTest.runAll(args.length > 1 ? Double.parseDouble(args[1]) : 600);
+            return;
+        }
+
+        /* ******* CALL PARAMETER SWEEP: java Commercial_Controller sweep [threads] [callsPerHour] ******* */
+        if (args.length > 0 && args[0].equals("sweep")) {
+            int parallelism = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+            SimulationRunner.runAll(parallelism, args.length > 2 ? Double.parseDouble(args[2]) : 600);
+            return;
+        }
+
+        /* ******* SEARCH THE BEST ZONES OF THE COLUMNS FOR A FLOOR DEMAND: java Commercial_Controller zoning [threads] [callsPerHour] ******* */
+        if (args.length > 0 && args[0].equals("zoning")) {
+            int parallelism = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+            ZoningOptimizer.runAll(parallelism, args.length > 2 ? Double.parseDouble(args[2]) : 600);
+            return;
+        }
+
+        /* ******* BUILD ALL THE BATTERIES OF A CONFIGURATION FILE: java Commercial_Controller buildings <file> ******* */
+        if (args.length > 1 && args[0].equals("buildings")) {
+            long startTime = System.nanoTime();
+            List<Battery> batteriesList = BuildingConfigFile.load(Paths.get(args[1]));
+            long buildTime = System.nanoTime() - startTime;
+            for (Battery battery : batteriesList) {
+                System.out.println(battery);
+                battery.columnsList.forEach(column -> System.out.println("    " + column));
+            }
+            int numberOfElevators = batteriesList.stream().mapToInt(battery -> battery.numberOfColumns * battery.numberOfElevatorsPerColumn).sum();
+            System.out.printf("%d batteries (%d elevators) read and built in %.3fms%n", batteriesList.size(), numberOfElevators, buildTime / 1e6);
+            return;
+        }
+
+        /* ******* TAKE THE CALLS OF THE FLOOR PANELS OVER TCP, IN REAL TIME: java Commercial_Controller server [port] ******* */
+        if (args.length > 0 && args[0].equals("server")) {
+            Battery battery = new Battery(1, 4, 66, 6, 5, BatteryStatus.ACTIVE, ClockMode.WALL_CLOCK);
+            battery.eventSink = new NoOpEventSink();
+            battery.start();
+            CallServer server = new CallServer(battery, new InetSocketAddress(args.length > 1 ? Integer.parseInt(args[1]) : 7070));
+            server.start();
+            System.out.println("Listening on " + server.getAddress());
+            server.selectorThread.join();
+            return;
+        }
+
+        /* ******* SEND TRIPS TO A SERVER: java Commercial_Controller client <host> <port> [connections] [tripsPerConnection] ******* */
+        if (args.length > 2 && args[0].equals("client")) {
+            CallLoadClient client = new CallLoadClient(new InetSocketAddress(args[1], Integer.parseInt(args[2])), args.length > 3 ? Integer.parseInt(args[3]) : 16,
+                    args.length > 4 ? Integer.parseInt(args[4]) : 10_000, 32, -6, 60, 42);
+            client.run();
+            client.printReport();
+            return;
+        }
+
+        /* ******* LOAD TEST OF THE SERVER OVER LOOPBACK, IN VIRTUAL TIME: java Commercial_Controller netload [connections] [tripsPerConnection] ******* */
+        if (args.length > 0 && args[0].equals("netload")) {
+            Battery battery = new Battery(1, 4, 66, 6, 5, BatteryStatus.ACTIVE);
+            battery.eventSink = new NoOpEventSink();
+            battery.setSensorSeed(42);
+            battery.start();
+            try (CallServer server = new CallServer(battery, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+                server.start();
+                CallLoadClient client = new CallLoadClient(server.getAddress(), args.length > 1 ? Integer.parseInt(args[1]) : 16, args.length > 2 ? Integer.parseInt(args[2]) : 10_000, 32, -6, 60, 42);
+                client.run();
+                client.printReport();
+                System.out.println("Requests decoded by the server: " + server.requestCount + " | Reading paused by saturated columns: " + server.pauseCount + " times | Hall calls dispatched: " + battery.columnsList.stream().mapToLong(column -> column.metrics.hallCalls.sum()).sum());
+            }
+            battery.stop();
+            return;
+        }
+
+        /* ******* RECORD ONE HOUR OF LUNCH TRAFFIC IN A JOURNAL: java Commercial_Controller journal <file> [maxFloor of each zone] ******* */
+        if (args.length > 1 && args[0].equals("journal")) {
+            int[] zoneMaxFloors = args.length > 2 ? Arrays.stream(args, 2, args.length).mapToInt(Integer::parseInt).toArray() : null;
+            Battery battery = new BatteryBuilder(1, 4, 66, 6, 5).withZones(zoneMaxFloors).build();
+            battery.setSensorSeed(42);
+            LoadTest loadTest = new LoadTest(battery);
+            try (JournalEventSink journal = new JournalEventSink(Paths.get(args[1]), battery)) {
+                battery.eventSink = journal;
+                loadTest.run(new TrafficGenerator(battery, 42).generate(TrafficProfile.LUNCH, 600, 3_600_000));
+                System.out.println(journal.recordCount + " records written in " + args[1]);
+            }
+            return;
+        }
+
+        /* ******* REBUILD THE STATE OF THE BATTERY FROM A JOURNAL: java Commercial_Controller replay <file> [timeInMilliseconds] ******* */
+        if (args.length > 1 && args[0].equals("replay")) {
+            JournalReplay replay = new JournalReplay(Paths.get(args[1]));
+            Battery battery = replay.replay(args.length > 2 ? Long.parseLong(args[2]) : Long.MAX_VALUE);
+            replay.close();
+            System.out.println(battery);
+            for (Column column : battery.columnsList) {
+                System.out.println(new ColumnSnapshot(column));
+                column.elevatorsList.forEach(elevator -> System.out.println("    " + new ElevatorSnapshot(elevator) + " | Doors: " + elevator.elevatorDoor.status));
+            }
+            return;
+        }
+
+        /* ******* SAVE THE STATE OF A BATTERY IN THE MIDDLE OF THE LUNCH TRAFFIC AND RESTORE IT: java Commercial_Controller checkpoint <file> ******* */
+        if (args.length > 1 && args[0].equals("checkpoint")) {
+            Battery battery = new Battery(1, 4, 66, 6, 5, BatteryStatus.ACTIVE);
+            battery.setSensorSeed(42);
+            new LoadTest(battery).schedule(new TrafficGenerator(battery, 42).generate(TrafficProfile.LUNCH, 1200, 3_600_000));
+            battery.columnsList.forEach(column -> column.simulation.runUntil(1_800_000));
+            int pendingCount = battery.columnsList.stream().mapToInt(column -> column.pendingCalls.pendingCount).sum();
+            long startTime = System.nanoTime();
+            battery.writeState(Paths.get(args[1]));
+            long writeTime = System.nanoTime() - startTime;
+            startTime = System.nanoTime();
+            Battery restoredBattery = Battery.readState(Paths.get(args[1]));
+            long readTime = System.nanoTime() - startTime;
+            restoredBattery.eventSink = new NoOpEventSink();
+            System.out.printf("%d bytes written in %.3fms, restored in %.3fms%n", Files.size(Paths.get(args[1])), writeTime / 1e6, readTime / 1e6);
+            for (int i = 0; i < battery.columnsList.size(); i++) {
+                Column column = battery.columnsList.get(i);
+                Column restoredColumn = restoredBattery.columnsList.get(i);
+                System.out.println(new ColumnSnapshot(restoredColumn));
+                for (int j = 0; j < column.elevatorsList.size(); j++) {
+                    String state = new ElevatorSnapshot(column.elevatorsList.get(j)).toString();
+                    String restoredState = new ElevatorSnapshot(restoredColumn.elevatorsList.get(j)).toString();
+                    System.out.println("    " + restoredState + (state.equals(restoredState) ? "" : " | DIFFERENT FROM: " + state));
+                }
+            }
+            int restoredPendingCount = restoredBattery.columnsList.stream().mapToInt(column -> column.pendingCalls.pendingCount).sum();
+            restoredBattery.run();
+            System.out.println("The restored battery answered its waiting calls and stopped at " + restoredBattery.columnsList.stream().mapToLong(column -> column.simulation.currentTime).max().getAsLong() + "ms");
+            //the restored battery only has the calls of the checkpoint, so its reassigned calls are old calls restored with their times
+            long reassignedCount = restoredBattery.columnsList.stream().mapToLong(column -> column.metrics.reassignedCalls.sum()).sum();
+            int leftCount = restoredBattery.columnsList.stream().mapToInt(column -> column.pendingCalls.pendingCount).sum();
+            boolean isPassed = restoredPendingCount == pendingCount && reassignedCount > 0 && leftCount == 0;
+            System.out.println("Pending calls: " + pendingCount + " | Restored: " + restoredPendingCount + " | Reassigned after the restore: " + reassignedCount + " | Left: " + leftCount);
+            System.out.println(isPassed ? "CHECKPOINT PASSED" : "CHECKPOINT FAILED");
+            System.exit(isPassed ? 0 : 1);
+        }
+
         /* ******* CALL SCENARIOS ******* */
         scenario1();
         scenario2();
@@ -0,0 +1,218 @@
+/* *********************************************** **
+ @Author		Cindy Okino
+ @Website		https://github.com/cindyokino
+ @Last Update	October 9, 2020
+
+
+ SUMMARY:
+ 0- BENCHMARK PROGRAM
+    0a- Harness: measure, runIteration
+    0b- Benchmarks: runAll (one JVM per benchmark), run, createBusyColumn
+ 1- MAIN METHOD (run with: java Commercial_Controller_Benchmark [name])
+
+ HOW TO RUN:
+ The benchmarks use the classes of Commercial_Controller.java, this file is kept apart so they are not built with the
+ controller. Compile both files together: javac Commercial_Controller.java Commercial_Controller_Benchmark.java
+
+ RESULTS:
+ The numbers are indicative only. The harness is small: it warms up, measures fixed time iterations and runs each
+ benchmark in its own JVM, but it does not control the JIT, the garbage collector or the frequency of the CPU like JMH
+ does. Use them to compare two versions of the controller on the same machine, not as absolute throughputs.
+
+  ** ************************************************** */
+
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.function.LongSupplier;
+
+
+//------------------------------------------- BENCHMARK PROGRAM -------------------------------------------------------------------
+//---------------------------------------------------------------------------------------------------------------------------------
+/* ******* MICRO-BENCHMARKS OF THE HOT PATHS OF THE CONTROLLER, THE EVENTS ARE SENT TO A NoOpEventSink ******* */
+/* ******* EACH BENCHMARK RUNS WARMUP ITERATIONS (SO THE JIT COMPILES THE HOT PATH) BEFORE THE MEASURED ITERATIONS ******* */
+@SuppressWarnings("auxiliaryclass") //the classes of the controller are all in Commercial_Controller.java
+class Benchmark {
+    static final String[] BENCHMARKS = {"batteryConstruction", "findElevator", "findElevatorEta", "findNearestElevator", "findElevatorEtaStops", "addFloorToFloorList", "moveUpDown"};
+    static final long ITERATION_TIME = 500;   //How many time each iteration runs in MILLISECONDS
+    static final int WARMUP_ITERATIONS = 3;
+    static final int MEASURED_ITERATIONS = 5;
+    static volatile long blackhole;           //Receives the results so the JIT cannot remove the benchmarked code
+
+
+    //----------------- Harness -----------------//
+    /* ******* MEASURE THE THROUGHPUT OF AN OPERATION AND PRINT THE MEAN AND THE STANDARD DEVIATION OF THE ITERATIONS ******* */
+    public static void measure(String benchmarkName, String parameter, LongSupplier operation) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            runIteration(operation);
+        }
+        double[] scoresArray = new double[MEASURED_ITERATIONS];
+        double sum = 0;
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            scoresArray[i] = runIteration(operation);
+            sum += scoresArray[i];
+        }
+        double mean = sum / MEASURED_ITERATIONS;
+        double squaresSum = 0;
+        for (double score : scoresArray) {
+            squaresSum += (score - mean) * (score - mean);
+        }
+        double deviation = Math.sqrt(squaresSum / (MEASURED_ITERATIONS - 1));
+        System.out.println(String.format("%-22s %-32s %16.1f +- %12.1f ops/s", benchmarkName, parameter, mean, deviation));
+    }
+
+    /* ******* RUN THE OPERATION AS MANY TIMES AS POSSIBLE DURING ONE ITERATION, RETURNS THE OPERATIONS PER SECOND ******* */
+    private static double runIteration(LongSupplier operation) {
+        long operationsCount = 0;
+        long result = 0;
+        long startTime = System.nanoTime();
+        long endTime = startTime + ITERATION_TIME * 1_000_000;
+        long now;
+        do {
+            result += operation.getAsLong();
+            operationsCount++;
+            now = System.nanoTime();
+        } while (now < endTime);
+        blackhole += result;
+        return operationsCount * 1e9 / (now - startTime);
+    }
+
+
+    //----------------- Benchmarks -----------------//
+    /* ******* RUN EVERY BENCHMARK IN ITS OWN JVM, IN A RANDOM ORDER: IN A SHARED JVM THE FIRST STRATEGY MEASURED (PRIORITY OR ******* */
+    /* ******* ETA) GETS A CALL SITE WITH ONE IMPLEMENTATION THAT THE JIT INLINES, AND THE NEXT ONES PAY FOR ITS PROFILE ******* */
+    public static void runAll() throws IOException, InterruptedException {
+        System.out.println(String.format("%-22s %-32s %16s   %12s", "Benchmark", "Parameter", "Score", "Error"));
+        List<String> benchmarksList = new ArrayList<>(Arrays.asList(BENCHMARKS));
+        Collections.shuffle(benchmarksList);
+        String javaPath = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        for (String benchmarkName : benchmarksList) {
+            Process process = new ProcessBuilder(javaPath, "-cp", System.getProperty("java.class.path"), "Commercial_Controller_Benchmark", benchmarkName).inheritIO().start();
+            int exitCode = process.waitFor();
+            if (exitCode != 0) {
+                throw new IllegalStateException("The benchmark " + benchmarkName + " failed with the exit code " + exitCode);
+            }
+        }
+    }
+
+    /* ******* RUN ONE BENCHMARK IN THIS JVM, EACH OF ITS MEASURES HAS ITS OWN WARMUP ******* */
+    public static void run(String benchmarkName) {
+        switch (benchmarkName) {
+            case "batteryConstruction": // 1- Building a battery, small and very large buildings
+                measure("batteryConstruction", "66 floors, 4 columns x 5 cars", () -> new Battery(1, 4, 66, 6, 5, BatteryStatus.ACTIVE).columnsList.size());
+                measure("batteryConstruction", "306 floors, 10 columns x 64 cars", () -> new Battery(1, 10, 306, 6, 64, BatteryStatus.ACTIVE).columnsList.size());
+                break;
+            case "findElevator": // 2- Selecting an elevator in a busy column, with each strategy
+            case "findElevatorEta":
+                for (int numberOfElevators : new int[]{5, 16, 64, 2048}) {
+                    Column column = createBusyColumn(numberOfElevators, 1);
+                    if (benchmarkName.equals("findElevatorEta")) {
+                        column.dispatchStrategy = new EtaDispatchStrategy();
+                    }
+                    int[] requestIndex = {0};
+                    measure(benchmarkName.equals("findElevatorEta") ? "findElevator (ETA)" : "findElevator", numberOfElevators + " cars", () -> {
+                        int requestedFloor = column.minFloor + (requestIndex[0]++ % (column.maxFloor - column.minFloor));
+                        return column.findElevator(requestedFloor, requestIndex[0] % 2 == 0 ? Direction.UP : Direction.DOWN).id;
+                    });
+                }
+                break;
+            case "findNearestElevator":
+                for (int numberOfElevators : new int[]{5, 16, 64, 2048}) {
+                    Column column = createBusyColumn(numberOfElevators, 1);
+                    int[] requestIndex = {0};
+                    measure("findNearestElevator", numberOfElevators + " cars", () -> {
+                        int requestedFloor = column.minFloor + (requestIndex[0]++ % (column.maxFloor - column.minFloor));
+                        return column.findNearestElevator(requestedFloor, column.elevatorsList).id;
+                    });
+                }
+                break;
+            case "findElevatorEtaStops": // 3- Estimating the time of arrival of cars with growing stop lists, the cost does not grow with the stops
+                for (int stopsPerElevator : new int[]{1, 10, 50}) {
+                    Column column = createBusyColumn(64, stopsPerElevator);
+                    column.dispatchStrategy = new EtaDispatchStrategy();
+                    int[] requestIndex = {0};
+                    measure("findElevator (ETA)", "64 cars, " + stopsPerElevator + " stops each", () -> {
+                        int requestedFloor = column.minFloor + (requestIndex[0]++ % (column.maxFloor - column.minFloor));
+                        return column.findElevator(requestedFloor, requestIndex[0] % 2 == 0 ? Direction.UP : Direction.DOWN).id;
+                    });
+                }
+                break;
+            case "addFloorToFloorList": // 4- Adding stops to growing stop lists (each operation adds then deletes all the stops)
+                for (int numberOfStops : new int[]{10, 100, 1000}) {
+                    Battery battery = new Battery(1, 1, 2000, 0, 1, BatteryStatus.ACTIVE);
+                    Elevator elevator = battery.columnsList.get(0).elevatorsList.get(0);
+                    List<Integer> floorsList = new ArrayList<>();
+                    for (int floor = 1; floor <= 2000; floor += 2000 / numberOfStops) {
+                        floorsList.add(floor);
+                    }
+                    Collections.shuffle(floorsList, new Random(42));
+                    int[] floorsArray = floorsList.stream().mapToInt(Integer::intValue).toArray();
+                    measure("addFloorToFloorList", numberOfStops + " stops", () -> {
+                        for (int floor : floorsArray) {
+                            elevator.addFloorToFloorList(floor);
+                        }
+                        int size = elevator.stopSet.size;
+                        for (int floor : floorsArray) {
+                            elevator.deleteFloorFromList(floor);
+                        }
+                        return size;
+                    });
+                }
+                break;
+            case "moveUpDown": // 5- Full traversal of the column: up to the last floor, then down to the lobby
+                for (int numberOfFloors : new int[]{60, 300}) {
+                    Battery battery = new Battery(1, 1, numberOfFloors, 0, 1, BatteryStatus.ACTIVE);
+                    battery.eventSink = new NoOpEventSink();
+                    Elevator elevator = battery.columnsList.get(0).elevatorsList.get(0);
+                    measure("moveUp/moveDown", numberOfFloors + " floors and back", () -> {
+                        elevator.addFloorToFloorList(numberOfFloors);
+                        elevator.moveElevator(numberOfFloors);
+                        battery.run();
+                        elevator.addFloorToFloorList(1);
+                        elevator.moveElevator(1);
+                        battery.run();
+                        return elevator.getFloor();
+                    });
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("No benchmark " + benchmarkName + ", the benchmarks are " + String.join(", ", BENCHMARKS));
+        }
+    }
+
+    /* ******* CREATE A COLUMN WITH ELEVATORS SPREAD ON ALL THE FLOORS, MOVING IN BOTH DIRECTIONS OR IDLE ******* */
+    /* ******* A MOVING ELEVATOR GOES TO THE END OF THE COLUMN, WITH stopsPerElevator - 1 MORE STOPS ON ANY FLOOR ******* */
+    private static Column createBusyColumn(int numberOfElevators, int stopsPerElevator) {
+        Battery battery = new Battery(1, 4, 66, 6, numberOfElevators, BatteryStatus.ACTIVE);
+        battery.eventSink = new NoOpEventSink();
+        Column column = battery.columnsList.get(2);
+        Random random = new Random(42);
+        for (Elevator elevator : column.elevatorsList) {
+            elevator.setFloor(column.minFloor + random.nextInt(column.maxFloor - column.minFloor + 1));
+            elevator.setStatus(ElevatorStatus.values()[random.nextInt(ElevatorStatus.values().length)]);
+            if (elevator.getStatus() != ElevatorStatus.IDLE) {
+                elevator.addFloorToFloorList(elevator.getStatus() == ElevatorStatus.UP ? column.maxFloor : 1);
+                for (int i = 1; i < stopsPerElevator; i++) {
+                    elevator.addFloorToFloorList(column.minFloor + random.nextInt(column.maxFloor - column.minFloor + 1));
+                }
+            }
+        }
+        return column;
+    }
+}
+
+
+//------------------------------------------- MAIN METHOD -------------------------------------------------------------------------
+//---------------------------------------------------------------------------------------------------------------------------------
+public class Commercial_Controller_Benchmark {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        /* ******* CALL BENCHMARKS: java Commercial_Controller_Benchmark [name] (WITHOUT A NAME, EACH BENCHMARK RUNS IN ITS OWN JVM) ******* */
+        if (args.length > 0) {
+            Benchmark.run(args[0]);
+        } else {
+            Benchmark.runAll();
+        }
+    }
+}